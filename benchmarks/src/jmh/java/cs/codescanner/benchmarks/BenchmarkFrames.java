@@ -0,0 +1,99 @@
+package cs.codescanner.benchmarks;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+
+import cs.codescanner.scanner.decode.DecoderWarmUp;
+
+/**
+ * Synthetic preview frames shaped like the ones the scanner gets: an 800x480
+ * Y plane, the size CameraConfigurationManager settles on for large screens,
+ * with a code drawn like {@link DecoderWarmUp} draws its own in the middle and
+ * some sensor noise.
+ */
+final class BenchmarkFrames {
+
+    static final int WIDTH = 800;
+    static final int HEIGHT = 480;
+    private static final int NOISE = 12;
+
+    /**
+     * Crops decoded in practice, in preview coordinates.
+     */
+    enum Crop {
+        /**
+         * The whole frame.
+         */
+        FULL(0, 0, WIDTH, HEIGHT),
+        /**
+         * The default framing rect, 3/4 by 4/5 of the frame.
+         */
+        FRAMING(100, 48, 600, 384),
+        /**
+         * A narrow strip as a region of interest around a 1D code.
+         */
+        STRIP(50, 180, 700, 120),
+        /**
+         * The smallest region of interest.
+         */
+        SQUARE(280, 120, 240, 240);
+
+        final int left;
+        final int top;
+        final int width;
+        final int height;
+
+        Crop(int left, int top, int width, int height) {
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * @return A typical mix of enabled 1D and 2D formats.
+     */
+    static Map<DecodeHintType, Object> hints() {
+        Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(BarcodeFormat.QR_CODE, BarcodeFormat.DATA_MATRIX,
+                BarcodeFormat.EAN_13, BarcodeFormat.EAN_8, BarcodeFormat.UPC_A, BarcodeFormat.UPC_E,
+                BarcodeFormat.CODE_128, BarcodeFormat.CODE_39, BarcodeFormat.ITF));
+        return hints;
+    }
+
+    static String contents(BarcodeFormat format) {
+        switch (format) {
+            case EAN_13:
+                return "5901234123457";
+            case CODE_128:
+                return "CS-SCANNER-0042";
+            default:
+                return "https://example.com/parcel/0123456789";
+        }
+    }
+
+    /**
+     * @return A frame with the code of the given format centered in it.
+     */
+    static byte[] frame(BarcodeFormat format) {
+        boolean twoD = format == BarcodeFormat.QR_CODE;
+        byte[] frame = DecoderWarmUp.frame(WIDTH, HEIGHT, DecoderWarmUp.encode(contents(format), format,
+                twoD ? 300 : 520, twoD ? 300 : 160));
+        Random random = new Random(42);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            int value = (frame[i] & 0xff) + random.nextInt(2 * NOISE + 1) - NOISE;
+            frame[i] = (byte) Math.max(0, Math.min(255, value));
+        }
+        return frame;
+    }
+
+    private BenchmarkFrames() {
+    }
+
+}
@@ -0,0 +1,74 @@
+package cs.codescanner.benchmarks;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import cs.codescanner.scanner.decode.LuminanceBufferPool;
+import cs.codescanner.scanner.decode.PlanarYUVLuminanceSource;
+
+/**
+ * A whole frame from Y plane to result in the framing rect, through the plain
+ * source, binarizer and MultiFormatReader chain with either binarizer.
+ * {@link FrameDecoderBenchmark} measures the same frames the way the decode
+ * threads run them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"QR_CODE", "EAN_13", "CODE_128"})
+    public BarcodeFormat format;
+
+    @Param({"HYBRID", "GLOBAL_HISTOGRAM"})
+    public String binarizer;
+
+    private final BenchmarkFrames.Crop _crop = BenchmarkFrames.Crop.FRAMING;
+    private final MultiFormatReader _reader = new MultiFormatReader();
+    private byte[] _frame;
+
+    @Setup public void setUp() throws NotFoundException {
+        _frame = BenchmarkFrames.frame(format);
+        _reader.setHints(BenchmarkFrames.hints());
+        // Fail at setup rather than benchmark the not found path by accident
+        if (!BenchmarkFrames.contents(format).equals(readerDecode().getText()))
+            throw new IllegalStateException("Frame does not decode: " + format);
+    }
+
+    @Benchmark public Result readerDecode() throws NotFoundException {
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(_frame, BenchmarkFrames.WIDTH,
+                BenchmarkFrames.HEIGHT, _crop.left, _crop.top, _crop.width, _crop.height, false,
+                LuminanceBufferPool.get());
+        Binarizer binarizer = "HYBRID".equals(this.binarizer) ? new HybridBinarizer(source)
+                : new GlobalHistogramBinarizer(source);
+        try {
+            return _reader.decodeWithState(new BinaryBitmap(binarizer));
+        } finally {
+            _reader.reset();
+        }
+    }
+
+}
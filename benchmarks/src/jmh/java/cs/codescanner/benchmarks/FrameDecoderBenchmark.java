@@ -0,0 +1,53 @@
+package cs.codescanner.benchmarks;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import cs.codescanner.scanner.decode.DecodeOutcome;
+import cs.codescanner.scanner.decode.FrameDecoder;
+
+/**
+ * The frames of {@link DecodeBenchmark} through {@link FrameDecoder} as the
+ * decode threads run it, with its pyramid, binarizer plan and format
+ * selection warmed up on the same code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameDecoderBenchmark {
+
+    @Param({"QR_CODE", "EAN_13", "CODE_128"})
+    public BarcodeFormat format;
+
+    private final BenchmarkFrames.Crop _crop = BenchmarkFrames.Crop.FRAMING;
+    private byte[] _frame;
+    private FrameDecoder _decoder;
+
+    @Setup public void setUp() {
+        _frame = BenchmarkFrames.frame(format);
+        _decoder = new FrameDecoder(BenchmarkFrames.hints());
+        if (!decode().isFound()) throw new IllegalStateException("Frame does not decode: " + format);
+    }
+
+    @Benchmark public DecodeOutcome decode() {
+        return _decoder.decode(_frame, BenchmarkFrames.WIDTH, BenchmarkFrames.HEIGHT, _crop.left, _crop.top,
+                _crop.width, _crop.height);
+    }
+
+}
@@ -0,0 +1,105 @@
+package cs.codescanner.benchmarks;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import cs.codescanner.scanner.decode.ByteBufferLuminanceSource;
+import cs.codescanner.scanner.decode.FrameLuminanceSource;
+import cs.codescanner.scanner.decode.GreyscalePixels;
+import cs.codescanner.scanner.decode.LuminanceBufferPool;
+import cs.codescanner.scanner.decode.PlanarYUVLuminanceSource;
+
+/**
+ * Reading a preview frame through {@link PlanarYUVLuminanceSource}, or through
+ * {@link ByteBufferLuminanceSource} from a direct buffer with padded rows as
+ * camera2 delivers them: the whole crop with getMatrix as the binarizers of 2D
+ * readers do, row by row with getRow as the 1D readers do, and row by row into
+ * pixels as thumbnails are rendered. Building the source is part of each
+ * operation, as it is per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LuminanceSourceBenchmark {
+
+    /**
+     * Row stride of the direct buffer, rows padded to a multiple of 64 bytes.
+     */
+    private static final int ROW_STRIDE = (BenchmarkFrames.WIDTH + 63) / 64 * 64;
+
+    @Param({"ARRAY", "DIRECT"})
+    public String frame;
+
+    @Param({"FULL", "FRAMING", "STRIP", "SQUARE"})
+    public BenchmarkFrames.Crop crop;
+
+    @Param({"false", "true"})
+    public boolean reverseHorizontal;
+
+    /**
+     * 1 for the full resolution pass, 2 for the coarse pass of the pyramid.
+     */
+    @Param({"1", "2"})
+    public int downsample;
+
+    private byte[] _frame;
+    private ByteBuffer _directFrame;
+    private byte[] _row;
+    private int[] _pixels;
+
+    @Setup public void setUp() {
+        _frame = BenchmarkFrames.frame(BarcodeFormat.QR_CODE);
+        _directFrame = ByteBuffer.allocateDirect(ROW_STRIDE * BenchmarkFrames.HEIGHT);
+        for (int y = 0; y < BenchmarkFrames.HEIGHT; y++) {
+            _directFrame.position(y * ROW_STRIDE);
+            _directFrame.put(_frame, y * BenchmarkFrames.WIDTH, BenchmarkFrames.WIDTH);
+        }
+        _row = new byte[crop.width];
+        _pixels = new int[crop.width];
+    }
+
+    @Benchmark public byte[] getMatrix() {
+        return source().getMatrix();
+    }
+
+    @Benchmark public void getRow(Blackhole blackhole) {
+        FrameLuminanceSource source = source();
+        for (int y = 0; y < source.getHeight(); y++) blackhole.consume(source.getRow(y, _row));
+    }
+
+    @Benchmark public int[] greyscalePixels() {
+        FrameLuminanceSource source = source();
+        int width = source.getWidth();
+        for (int y = 0; y < source.getHeight(); y++)
+            GreyscalePixels.toPixels(source.getRow(y, _row), _pixels, width, false);
+        return _pixels;
+    }
+
+    private FrameLuminanceSource source() {
+        if (frame.equals("DIRECT")) return new ByteBufferLuminanceSource(_directFrame, ROW_STRIDE, 1,
+                BenchmarkFrames.WIDTH, BenchmarkFrames.HEIGHT, crop.left, crop.top, crop.width, crop.height,
+                reverseHorizontal, LuminanceBufferPool.get()).downsample(downsample);
+        return new PlanarYUVLuminanceSource(_frame, BenchmarkFrames.WIDTH, BenchmarkFrames.HEIGHT, crop.left,
+                crop.top, crop.width, crop.height, reverseHorizontal, LuminanceBufferPool.get())
+                .downsample(downsample);
+    }
+
+}
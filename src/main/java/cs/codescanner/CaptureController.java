@@ -29,15 +29,24 @@ public abstract class CaptureController extends CSViewController {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         activity().getWindow().addFlags(LayoutParams.FLAG_KEEP_SCREEN_ON);
+        if (!isLandscapeLocked()) return;
         _requestedOrientationBefore = activity().getRequestedOrientation();
         activity().setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
     }
 
     public void onDestroy() {
-        activity().setRequestedOrientation(_requestedOrientationBefore);
+        if (isLandscapeLocked()) activity().setRequestedOrientation(_requestedOrientationBefore);
         super.onDestroy();
     }
 
+    /**
+     * Override to return false to scan in whatever orientation the activity is
+     * in, frames are then rotated to match the display.
+     */
+    protected boolean isLandscapeLocked() {
+        return true;
+    }
+
     protected void onDecodeDone() {
     }
 
@@ -0,0 +1,322 @@
+package cs.codescanner.scanner;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cs.codescanner.scanner.decode.BinarizerStrategy;
+import cs.codescanner.scanner.decode.DecodeOutcome;
+import cs.codescanner.scanner.decode.DecodePyramid;
+import cs.codescanner.scanner.decode.FormatStatistics;
+import cs.codescanner.scanner.decode.FrameDecoder;
+import cs.codescanner.scanner.decode.FrameLuminanceSource;
+import cs.codescanner.scanner.decode.LuminanceBufferPool;
+import cs.codescanner.scanner.decode.PlanarYUVLuminanceSource;
+
+/**
+ * Decodes batches of stored images and Y plane dumps in parallel, with the
+ * formats and hints the live scanner uses. Results are handed to the
+ * {@link Listener} from the pool threads as soon as each input is done, in no
+ * particular order.
+ *
+ * Inputs are loaded only when a worker takes them and at most maxInFlight are
+ * loaded at a time, so memory stays bounded however long the batch is as long
+ * as the inputs are files or the caller produces them lazily. Each pool thread
+ * reuses its own {@link FrameDecoder}, pixel row and luminance buffers, the
+ * decoders of a batch share their binarizer, format and pyramid statistics.
+ *
+ * Obtained from {@link CaptureMainController#newBatchDecoder}.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class BatchDecoder {
+
+    /**
+     * Something to decode, created with the static factories.
+     */
+    public static abstract class Input {
+
+        /**
+         * @param data Y plane, width * height bytes at the start.
+         */
+        public static Input yPlane(final byte[] data, final int width, final int height) {
+            return new Input() {
+                @Override FrameLuminanceSource load(Worker worker) {
+                    return new PlanarYUVLuminanceSource(data, width, height, 0, 0, width, height, false,
+                            worker.buffers);
+                }
+            };
+        }
+
+        /**
+         * @param file A raw preview frame dump, only its Y plane is read.
+         */
+        public static Input yPlane(final File file, final int width, final int height) {
+            return new Input() {
+                @Override FrameLuminanceSource load(Worker worker) throws IOException {
+                    byte[] data = worker.frame(width * height);
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        for (int read = 0, count; read < width * height; read += count) {
+                            count = in.read(data, read, width * height - read);
+                            if (count < 0) throw new IOException("Truncated frame: " + file);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    return new PlanarYUVLuminanceSource(data, width, height, 0, 0, width, height, false,
+                            worker.buffers);
+                }
+            };
+        }
+
+        public static Input bitmap(final Bitmap bitmap) {
+            return new Input() {
+                @Override FrameLuminanceSource load(Worker worker) {
+                    return worker.luminance(bitmap);
+                }
+            };
+        }
+
+        /**
+         * @param file An image BitmapFactory can decode, decoded when a worker
+         *             takes it and recycled right after.
+         */
+        public static Input image(final File file) {
+            return new Input() {
+                @Override FrameLuminanceSource load(Worker worker) throws IOException {
+                    Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+                    if (bitmap == null) throw new IOException("Cannot decode image: " + file);
+                    try {
+                        return worker.luminance(bitmap);
+                    } finally {
+                        bitmap.recycle();
+                    }
+                }
+            };
+        }
+
+        abstract FrameLuminanceSource load(Worker worker) throws IOException;
+
+    }
+
+    public interface Listener {
+
+        /**
+         * Called from a pool thread once the input is decoded.
+         *
+         * @param index  Position of the input in the batch.
+         * @param result null if no code was found.
+         */
+        void onDecoded(int index, Input input, Result result);
+
+        /**
+         * Called from a pool thread when the input could not be loaded.
+         */
+        void onError(int index, Input input, Exception e);
+
+    }
+
+    /**
+     * Counters of one batch.
+     */
+    public static final class Throughput {
+
+        public final int inputs;
+        public final int decoded;
+        public final int errors;
+        public final long elapsedNanos;
+        public final long decodeNanos;
+
+        Throughput(int inputs, int decoded, int errors, long elapsedNanos, long decodeNanos) {
+            this.inputs = inputs;
+            this.decoded = decoded;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.decodeNanos = decodeNanos;
+        }
+
+        /**
+         * @return Inputs done per second of wall time.
+         */
+        public float inputsPerSecond() {
+            return elapsedNanos == 0 ? 0 : inputs * 1e9f / elapsedNanos;
+        }
+
+        /**
+         * @return Mean time a worker spent on one input.
+         */
+        public long meanDecodeNanos() {
+            return inputs == 0 ? 0 : decodeNanos / inputs;
+        }
+
+        @Override public String toString() {
+            return "Throughput{inputs=" + inputs + ", decoded=" + decoded + ", errors=" + errors
+                    + ", perSecond=" + inputsPerSecond() + ", meanDecodeNanos=" + meanDecodeNanos() + "}";
+        }
+
+    }
+
+    /**
+     * State owned by one pool thread.
+     */
+    static final class Worker {
+
+        final FrameDecoder decoder;
+        final LuminanceBufferPool buffers = LuminanceBufferPool.get();
+        private byte[] _frame;
+        private int[] _pixels;
+
+        Worker(FrameDecoder decoder) {
+            this.decoder = decoder;
+        }
+
+        /**
+         * @return The buffer inputs are loaded into, kept apart from the crop
+         *         buffers the decoder reads the frame into.
+         */
+        byte[] frame(int area) {
+            if (_frame == null || _frame.length < area) _frame = new byte[area];
+            return _frame;
+        }
+
+        FrameLuminanceSource luminance(Bitmap bitmap) {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            if (_pixels == null || _pixels.length < width) _pixels = new int[width];
+            byte[] data = frame(width * height);
+            for (int y = 0, offset = 0; y < height; y++) {
+                bitmap.getPixels(_pixels, 0, width, 0, y, width, 1);
+                for (int x = 0; x < width; x++) {
+                    int pixel = _pixels[x];
+                    // Same weighting as zxing's RGBLuminanceSource
+                    data[offset++] = (byte) ((((pixel >> 16) & 0xff) + 2 * ((pixel >> 8) & 0xff)
+                            + (pixel & 0xff)) / 4);
+                }
+            }
+            return new PlanarYUVLuminanceSource(data, width, height, 0, 0, width, height, false, buffers);
+        }
+
+    }
+
+    private final ForkJoinPool _pool;
+    private final int _maxInFlight;
+    private final Map<DecodeHintType, Object> _hints;
+    private final BinarizerStrategy _binarizerStrategy = new BinarizerStrategy();
+    private final FormatStatistics _formatStatistics = new FormatStatistics();
+    private final DecodePyramid _pyramid = new DecodePyramid();
+    private final ThreadLocal<Worker> _workers = new ThreadLocal<Worker>() {
+        @Override protected Worker initialValue() {
+            // Stills are not gated on quality, a batch has no later frame to wait for
+            return new Worker(new FrameDecoder(_hints, false, null, null, _binarizerStrategy,
+                    _formatStatistics, _pyramid));
+        }
+    };
+
+    /**
+     * @param parallelism Number of pool threads.
+     * @param maxInFlight Number of inputs loaded at a time, at least
+     *                    parallelism to keep every thread busy.
+     */
+    BatchDecoder(Map<DecodeHintType, Object> hints, int parallelism, int maxInFlight) {
+        _hints = hints;
+        _pool = new ForkJoinPool(Math.max(1, parallelism));
+        _maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Decodes every input and waits for the last one. Inputs are pulled from
+     * the iterable only as workers become free.
+     *
+     * @return The counters of this batch.
+     * @throws RejectedExecutionException After {@link #shutdown}.
+     */
+    public Throughput decode(Iterable<? extends Input> inputs, final Listener listener)
+            throws InterruptedException {
+        final Semaphore inFlight = new Semaphore(_maxInFlight);
+        final AtomicInteger decoded = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicLong decodeNanos = new AtomicLong();
+        long start = System.nanoTime();
+        int count = 0;
+        try {
+            for (final Input input : inputs) {
+                inFlight.acquire();
+                final int index = count;
+                Runnable task = new Runnable() {
+                    public void run() {
+                        long started = System.nanoTime();
+                        try {
+                            Result result;
+                            try {
+                                result = decode(input);
+                            } catch (Exception e) {
+                                errors.incrementAndGet();
+                                decodeNanos.addAndGet(System.nanoTime() - started);
+                                listener.onError(index, input, e);
+                                return;
+                            }
+                            if (result != null) decoded.incrementAndGet();
+                            decodeNanos.addAndGet(System.nanoTime() - started);
+                            // Outside the catch, a throwing listener is not an error of the input
+                            listener.onDecoded(index, input, result);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                };
+                try {
+                    _pool.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // The permit would never come back and the wait below never end
+                    inFlight.release();
+                    throw e;
+                }
+                count++;
+            }
+        } finally {
+            // All permits back means every submitted input is done
+            inFlight.acquireUninterruptibly(_maxInFlight);
+            inFlight.release(_maxInFlight);
+        }
+        return new Throughput(count, decoded.get(), errors.get(), System.nanoTime() - start,
+                decodeNanos.get());
+    }
+
+    /**
+     * Stops the pool threads once the running batch is done.
+     */
+    public void shutdown() {
+        _pool.shutdown();
+    }
+
+    /**
+     * Like {@link #shutdown} but waits for the threads to end.
+     */
+    public boolean shutdown(long timeoutMs) throws InterruptedException {
+        _pool.shutdown();
+        return _pool.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private Result decode(Input input) throws IOException {
+        Worker worker = _workers.get();
+        DecodeOutcome outcome = worker.decoder.decode(input.load(worker), 0, 0);
+        return outcome.isFound() ? outcome.getResults()[0] : null;
+    }
+
+}
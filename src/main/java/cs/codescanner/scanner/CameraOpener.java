@@ -0,0 +1,99 @@
+package cs.codescanner.scanner;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import cs.codescanner.scanner.camera.CameraBackend;
+
+import static cs.java.lang.CSLang.info;
+
+/**
+ * Opens and configures the camera on a thread of its own, so the several
+ * hundred milliseconds this takes overlap with the surface being created
+ * instead of blocking the main thread once it is. Opens and closes run one
+ * after another in the order asked for, so a camera closed on pause is
+ * released before the next resume opens it again. How long opening and
+ * configuring took goes to {@link ScannerMetrics}, the outcome is posted to the
+ * main thread.
+ */
+final class CameraOpener {
+
+    interface Listener {
+
+        /**
+         * Called on the main thread once the camera is open and configured.
+         */
+        void onCameraOpened(CameraBackend camera);
+
+        /**
+         * Called on the main thread when the camera failed to open, it is
+         * closed again already.
+         */
+        void onCameraFailed(CameraBackend camera, Exception e);
+
+    }
+
+    private final ExecutorService _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CameraOpener");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Handler _main = new Handler(Looper.getMainLooper());
+    private final ScannerMetrics _metrics;
+
+    CameraOpener(ScannerMetrics metrics) {
+        _metrics = metrics;
+    }
+
+    void close(final CameraBackend camera) {
+        _executor.execute(new Runnable() {
+            @Override public void run() {
+                camera.closeDriver();
+            }
+        });
+    }
+
+    void open(final CameraBackend camera, final Listener listener) {
+        _executor.execute(new Runnable() {
+            @Override public void run() {
+                Exception failure = null;
+                try {
+                    long start = SystemClock.uptimeMillis();
+                    camera.open();
+                    long opened = SystemClock.uptimeMillis();
+                    camera.configure();
+                    long configured = SystemClock.uptimeMillis();
+                    _metrics.onCameraOpened(opened - start, configured - opened);
+                    info("Camera opened in " + (opened - start) + " ms, configured in "
+                            + (configured - opened) + " ms");
+                } catch (IOException | RuntimeException e) {
+                    camera.closeDriver();
+                    failure = e;
+                }
+                final Exception error = failure;
+                _main.post(new Runnable() {
+                    @Override public void run() {
+                        if (error == null) listener.onCameraOpened(camera);
+                        else listener.onCameraFailed(camera, error);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Lets a pending close finish, then ends the thread.
+     */
+    void shutdown() {
+        _executor.shutdown();
+    }
+
+}
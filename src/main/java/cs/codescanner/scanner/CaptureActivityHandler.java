@@ -2,61 +2,107 @@ package cs.codescanner.scanner;
 
 import static cs.java.lang.CSLang.info;
 
-import java.util.Collection;
-
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 
-import com.google.zxing.BarcodeFormat;
 import com.google.zxing.Result;
 
 import cs.codescanner.R;
-import cs.codescanner.scanner.camera.CameraManager;
+import cs.codescanner.scanner.camera.CameraBackend;
 
+/**
+ * Drives the preview, autofocus and scanner engine of a session on the main
+ * thread. While the device runs on battery and nothing happened for
+ * {@link CaptureMainController#setIdleThrottling idle delay}, neither a
+ * candidate point nor user interaction, frames are requested at a low rate
+ * and autofocus runs less often. The first candidate or interaction brings
+ * both back to full rate.
+ */
 public final class CaptureActivityHandler extends Handler {
 
 	private enum State {
 		PREVIEW, SUCCESS, DONE
 	}
 
+	private static final long IDLE_AUTOFOCUS_DELAY_MS = 5000L;
+
 	private final CaptureMainController capture;
-	private final DecodeThread decodeThread;
+	private final ScannerEngine engine;
 	private State state;
-	private final CameraManager cameraManager;
+	private final CameraBackend cameraManager;
+	private final boolean continuous;
+	private final long idleDelayMs;
+	private final long idleFrameIntervalMs;
+	private volatile long lastActivityAt;
+	private volatile boolean idle;
+	private boolean autoFocusDeferred;
 
-	CaptureActivityHandler(CaptureMainController activity, Collection<BarcodeFormat> decodeFormats,
-			String characterSet, CameraManager cameraManager) {
+	CaptureActivityHandler(CaptureMainController activity, ScannerEngine engine,
+			CameraBackend cameraManager) {
 		capture = activity;
-		decodeThread = new DecodeThread(activity, decodeFormats, characterSet,
-				new ViewfinderResultPointCallback(activity.getViewfinderView()));
-		decodeThread.start();
+		continuous = activity.isContinuousScanning();
+		idleDelayMs = activity.getIdleDelay();
+		idleFrameIntervalMs = activity.getIdleFrameInterval();
+		this.engine = engine;
+		engine.resume(new ViewfinderResultPointCallback(activity.getViewfinderView(), this), !continuous,
+				activity.isDecodingMultiple());
 		state = State.SUCCESS;
 		this.cameraManager = cameraManager;
 		cameraManager.startPreview();
 		restartPreviewAndDecode();
+		if (idleDelayMs > 0) sendEmptyMessageDelayed(R.id.idle_check, idleDelayMs);
 	}
 
 	@Override public void handleMessage(Message message) {
 		if (message.what == R.id.auto_focus) {
-			if (state == State.PREVIEW) cameraManager.requestAutoFocus(this, R.id.auto_focus);
+			if (state == State.PREVIEW) {
+				if (idle && !autoFocusDeferred) {
+					autoFocusDeferred = true;
+					sendEmptyMessageDelayed(R.id.auto_focus, IDLE_AUTOFOCUS_DELAY_MS);
+				} else {
+					autoFocusDeferred = false;
+					cameraManager.requestAutoFocus(this, R.id.auto_focus);
+				}
+			}
+		} else if (message.what == R.id.idle_check) {
+			checkIdle();
+		} else if (message.what == R.id.full_frame_rate) {
+			setIdle(false);
+		} else if (message.what == R.id.candidate_seen) {
+			capture.onCandidateSeen();
 		} else if (message.what == R.id.restart_preview) {
 			info("Got restart preview message");
 			restartPreviewAndDecode();
 		} else if (message.what == R.id.decode_succeeded) {
 			info("Got decode succeeded message");
-			state = State.SUCCESS;
-			Bundle bundle = message.getData();
-			Bitmap barcode = bundle == null ? null : (Bitmap) bundle
-					.getParcelable(DecodeThread.BARCODE_BITMAP);
-			capture.handleDecode((Result) message.obj, barcode);
-		} else if (message.what == R.id.decode_failed) {
-			state = State.PREVIEW;
-			cameraManager.requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
+			// Scanning continuously the frames keep flowing, duplicates were
+			// already filtered out by the decoder
+			if (!continuous) {
+				// A second success of the same scan
+				if (state != State.PREVIEW) return;
+				state = State.SUCCESS;
+				cameraManager.stopPreviewFrames();
+			}
+			// The thumbnail follows in its own decode_thumbnail message
+			capture.handleDecode((Result) message.obj, null);
+		} else if (message.what == R.id.decode_multiple_succeeded) {
+			info("Got decode multiple succeeded message");
+			if (!continuous) {
+				if (state != State.PREVIEW) return;
+				state = State.SUCCESS;
+				cameraManager.stopPreviewFrames();
+			}
+			capture.handleDecode((Result[]) message.obj);
+		} else if (message.what == R.id.decode_thumbnail) {
+			// Its result was dropped with the session, the bitmap goes back to
+			// the pool undelivered
+			if (state == State.DONE) capture.releaseThumbnail((Bitmap) message.obj);
+			else capture.handleDecodeThumbnail((Bitmap) message.obj);
 		} else if (message.what == R.id.return_scan_result) {
 			info("Got return scan result message");
 			capture.activity().setResult(Activity.RESULT_OK, (Intent) message.obj);
@@ -70,23 +116,69 @@ public final class CaptureActivityHandler extends Handler {
 		}
 	}
 
+	/**
+	 * Notes a candidate point or user interaction, bringing a throttled scanner
+	 * back to full rate. Called from any thread.
+	 */
+	void onActivity() {
+		lastActivityAt = SystemClock.uptimeMillis();
+		if (idle && !hasMessages(R.id.full_frame_rate)) sendEmptyMessage(R.id.full_frame_rate);
+	}
+
+	/**
+	 * Notes a candidate point, like {@link #onActivity} and also for the
+	 * inactivity finish, which lives on the main thread. Called from the decode
+	 * threads.
+	 */
+	void onCandidate() {
+		onActivity();
+		if (capture.isFinishingWhenInactive() && !hasMessages(R.id.candidate_seen)) sendEmptyMessage(R.id.candidate_seen);
+	}
+
 	public void quitSynchronously() {
 		state = State.DONE;
 		cameraManager.stopPreview();
-		Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
-		quit.sendToTarget();
-		try {
-			decodeThread.join(500L);// Wait
-		} catch (InterruptedException e) {
-		}
+		engine.pause();
 		removeMessages(R.id.decode_succeeded);
-		removeMessages(R.id.decode_failed);
+		removeMessages(R.id.decode_multiple_succeeded);
+		removeMessages(R.id.idle_check);
+		removeMessages(R.id.full_frame_rate);
+		removeMessages(R.id.candidate_seen);
+	}
+
+	private void checkIdle() {
+		if (state == State.DONE) return;
+		long quietMs = SystemClock.uptimeMillis() - lastActivityAt;
+		boolean quiet = quietMs >= idleDelayMs;
+		// Plugged in there is no battery to save
+		setIdle(quiet && !capture.isCharging());
+		sendEmptyMessageDelayed(R.id.idle_check, quiet ? idleDelayMs : idleDelayMs - quietMs);
+	}
+
+	private void setIdle(boolean newIdle) {
+		if (idle == newIdle) return;
+		idle = newIdle;
+		info(newIdle ? "Idle, throttling preview frames" : "Back to full frame rate");
+		cameraManager.setFrameInterval(newIdle ? idleFrameIntervalMs : 0);
+		if (!newIdle && autoFocusDeferred) {
+			// Focus now instead of waiting out the idle delay
+			removeMessages(R.id.auto_focus);
+			autoFocusDeferred = false;
+			if (state == State.PREVIEW) cameraManager.requestAutoFocus(this, R.id.auto_focus);
+		}
 	}
 
 	private void restartPreviewAndDecode() {
 		if (state == State.SUCCESS) {
+			if (autoFocusDeferred) {
+				removeMessages(R.id.auto_focus);
+				autoFocusDeferred = false;
+			}
+			lastActivityAt = SystemClock.uptimeMillis();
+			setIdle(false);
 			state = State.PREVIEW;
-			cameraManager.requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
+			engine.restart();
+			cameraManager.requestPreviewFrames(engine.getHandler(), R.id.decode);
 			cameraManager.requestAutoFocus(this, R.id.auto_focus);
 			capture.drawViewfinder();
 		}
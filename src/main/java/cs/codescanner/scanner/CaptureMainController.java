@@ -1,25 +1,41 @@
 package cs.codescanner.scanner;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.view.KeyEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
 
 import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
 import com.google.zxing.Result;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import cs.android.viewbase.CSOnKeyDownResult;
 import cs.android.viewbase.CSViewController;
 import cs.codescanner.CaptureController;
 import cs.codescanner.R;
+import cs.codescanner.scanner.camera.Camera2Manager;
+import cs.codescanner.scanner.camera.CameraBackend;
 import cs.codescanner.scanner.camera.CameraManager;
+import cs.codescanner.scanner.camera.PreviewSizePolicy;
+import cs.codescanner.scanner.decode.BinarizerStrategy;
+import cs.codescanner.scanner.decode.DecodePyramid;
+import cs.codescanner.scanner.decode.FormatStatistics;
+import cs.codescanner.scanner.decode.FrameQualityGate;
+import cs.codescanner.scanner.decode.FrameRecorder;
 import cs.java.collections.CSList;
 
 import static cs.java.lang.CSLang.error;
@@ -29,59 +45,230 @@ import static cs.java.lang.CSLang.list;
 public class CaptureMainController extends CSViewController implements SurfaceHolder.Callback {
 
     protected final CaptureController controller;
-    private CameraManager cameraManager;
+    private CameraBackend cameraManager;
     private CaptureActivityHandler handler;
     private Result savedResultToShow;
     private ViewfinderView viewfinderView;
     private Result _lastResult;
+    private List<Result> _lastResults = Collections.emptyList();
     private boolean hasSurface;
+    private CameraOpener _cameraOpener;
+    /**
+     * The camera being opened for the current session, null while paused.
+     */
+    private CameraBackend _openingCamera;
+    private boolean _cameraReady;
     private Collection<BarcodeFormat> decodeFormats;
+    private String _characterSet;
+    private ScannerEngine _engine;
     private InactivityTimer inactivityTimer;
     private BeepManager beepManager;
     private CSList<BarcodeFormat> _formats = list();
+    private int _previewBufferCount = -1;
+    private int _decodeWorkerCount = Runtime.getRuntime().availableProcessors();
+    private long _idleDelayMs = 10000;
+    private long _idleFrameIntervalMs = 500;
+    private volatile long _inactivityFinishMs;
+    private final ThumbnailPool _thumbnails = new ThumbnailPool();
+    private Bitmap.Config _thumbnailConfig;
+    private int _thumbnailSampleSize = 1;
+    private DuplicateFilter _duplicateFilter;
+    private boolean _decodeMultiple;
+    private boolean _continuousFocus = true;
+    private boolean _camera2;
+    private final FrameQualityGate _qualityGate = new FrameQualityGate();
+    private final BinarizerStrategy _binarizerStrategy = new BinarizerStrategy();
+    private final FormatStatistics _formatStatistics = new FormatStatistics();
+    private final RegionOfInterestTracker _regionOfInterest = new RegionOfInterestTracker();
+    private final DecodePyramid _decodePyramid = new DecodePyramid();
+    private FrameRecorder _frameRecorder;
+    private final ScannerMetrics _metrics = new ScannerMetrics();
+    private PreviewSizePolicy _previewSizePolicy;
+    private final CameraOpener.Listener _cameraListener = new CameraOpener.Listener() {
+        @Override public void onCameraOpened(CameraBackend camera) {
+            // Paused, and maybe resumed with another camera, since the open began
+            if (camera != _openingCamera) return;
+            _cameraReady = true;
+            if (hasSurface) initCamera(((SurfaceView) findView(R.id.preview_view)).getHolder());
+        }
+
+        @Override public void onCameraFailed(CameraBackend camera, Exception e) {
+            if (camera != _openingCamera) return;
+            error(e);
+            onFrameworkBug();
+        }
+    };
 
     public CaptureMainController(CaptureController controller) {
         super(controller);
         this.controller = controller;
     }
 
+    /**
+     * @return The binarizer selection shared by the decode threads, to switch
+     * it off and read its per binarizer statistics.
+     */
+    public BinarizerStrategy binarizerStrategy() {
+        return _binarizerStrategy;
+    }
+
+    /**
+     * @return The coarse-to-fine decode settings and per level hit rates,
+     * shared by the decode threads.
+     */
+    public DecodePyramid decodePyramid() {
+        return _decodePyramid;
+    }
+
     public void drawViewfinder() {
         viewfinderView.drawViewfinder();
     }
 
+    /**
+     * @return The check frames pass before decoding, to set its thresholds and
+     * read its counters.
+     */
+    public FrameQualityGate frameQualityGate() {
+        return _qualityGate;
+    }
+
+    /**
+     * @return The per format hit counts which decide the formats tried first,
+     * shared by the decode threads.
+     */
+    public FormatStatistics formatStatistics() {
+        return _formatStatistics;
+    }
+
     public Collection<BarcodeFormat> getFormats() {
         return _formats;
     }
 
+    /**
+     * @param barcode Always null, the frame's thumbnail arrives afterwards
+     *                through {@link #onDecodeThumbnail} when enabled by
+     *                {@link #setResultThumbnail}.
+     */
     public void handleDecode(Result rawResult, Bitmap barcode) {
         inactivityTimer.onActivity();
         _lastResult = rawResult;
+        _lastResults = Collections.singletonList(rawResult);
         beepManager.playBeepSoundAndVibrate();
         onDecodeDone();
     }
 
+    /**
+     * Receives every code found in one frame when {@link #setDecodeMultiple} is
+     * enabled, {@link #lastResult} is the first of them.
+     */
+    public void handleDecode(Result[] rawResults) {
+        inactivityTimer.onActivity();
+        _lastResult = rawResults[0];
+        _lastResults = Collections.unmodifiableList(Arrays.asList(rawResults));
+        beepManager.playBeepSoundAndVibrate();
+        onDecodeDone();
+    }
+
+    /**
+     * Receives the thumbnail of the last decoded frame when enabled by
+     * {@link #setResultThumbnail}. It arrives after the result itself.
+     */
+    void handleDecodeThumbnail(Bitmap thumbnail) {
+        onDecodeThumbnail(thumbnail);
+    }
+
+    /**
+     * @return Whether the continuous scanning duplicate filter lets the result
+     * through, always true when not scanning continuously.
+     */
+    boolean acceptResult(Result result) {
+        DuplicateFilter filter = _duplicateFilter;
+        return filter == null || filter.accept(result, SystemClock.uptimeMillis());
+    }
+
     public Handler handler() {
         return handler;
     }
 
+    /**
+     * Like {@link #acceptResult} for every result of a frame.
+     *
+     * @return The results which passed, possibly none.
+     */
+    Result[] acceptResults(Result[] results) {
+        if (_duplicateFilter == null) return results;
+        int accepted = 0;
+        for (Result result : results)
+            if (acceptResult(result)) results[accepted++] = result;
+        return accepted == results.length ? results : Arrays.copyOf(results, accepted);
+    }
+
+    public boolean isContinuousFocus() {
+        return _continuousFocus;
+    }
+
+    public boolean isContinuousScanning() {
+        return _duplicateFilter != null;
+    }
+
+    public boolean isDecodingMultiple() {
+        return _decodeMultiple;
+    }
+
     public Result lastResult() {
         return _lastResult;
     }
 
+    /**
+     * @return All codes of the last capture, a single one unless
+     * {@link #setDecodeMultiple} is enabled.
+     */
+    public List<Result> lastResults() {
+        return _lastResults;
+    }
+
+    /**
+     * @return Counters and latency histograms of the scanning pipeline, to read
+     * or subscribe to. Kept across sessions until reset.
+     */
+    public ScannerMetrics metrics() {
+        return _metrics;
+    }
+
+    /**
+     * Creates a decoder for stored images and frame dumps using the formats of
+     * the live scanner. Shut it down when done.
+     *
+     * @param parallelism Number of decode threads.
+     * @param maxInFlight Number of inputs held in memory at a time.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public BatchDecoder newBatchDecoder(int parallelism, int maxInFlight) {
+        return new BatchDecoder(hints(), parallelism, maxInFlight);
+    }
+
     public void onCreate(Bundle icicle) {
         hasSurface = false;
-        inactivityTimer = new InactivityTimer(controller.activity());
+        inactivityTimer = new InactivityTimer(controller.activity(), _inactivityFinishMs);
         beepManager = new BeepManager(controller.activity());
+        _previewSizePolicy = new PreviewSizePolicy(controller.activity());
+        _cameraOpener = new CameraOpener(_metrics);
+        // Started and warmed up while the camera is opening
+        _engine = new ScannerEngine(this, hints(), _decodeWorkerCount);
     }
 
     public void onDestroy() {
         inactivityTimer.shutdown();
+        _cameraOpener.shutdown();
+        _engine.shutdown();
+        _thumbnails.clear();
     }
 
     public void onKeyDown(CSOnKeyDownResult onKeyDown) {
         super.onKeyDown(onKeyDown);
+        onUserInteraction();
         if (onKeyDown._keyCode == KeyEvent.KEYCODE_BACK) {
-            if (_lastResult != null) {
+            if (_lastResult != null && !isContinuousScanning()) {
                 restartPreviewAfterDelay(0L);
                 onKeyDown._return.set(true);
             }
@@ -89,10 +276,32 @@ public class CaptureMainController extends CSViewController implements SurfaceHo
                 || onKeyDown._keyCode == KeyEvent.KEYCODE_CAMERA) onKeyDown._return.set(true);
     }
 
+    /**
+     * Tells the scanner the user is around, resetting the inactivity timeout and
+     * bringing a throttled scanner back to full frame rate. Call it from the
+     * host's touch handling, key presses and the flash toggle already do.
+     */
+    public void onUserInteraction() {
+        inactivityTimer.onActivity();
+        if (handler != null) handler.onActivity();
+    }
+
+    /**
+     * A candidate point was seen, it counts as activity for the inactivity
+     * finish like {@link #onUserInteraction}. Called on the main thread.
+     */
+    void onCandidateSeen() {
+        inactivityTimer.onActivity();
+    }
+
     public void onPause() {
         shutDownHandler();
         inactivityTimer.onPause();
-        cameraManager.closeDriver();
+        // Queued behind an open still running, which cannot be cancelled
+        _cameraOpener.close(cameraManager);
+        _openingCamera = null;
+        _cameraReady = false;
+        _previewSizePolicy.onSessionEnd(_metrics);
         if (!hasSurface) {
             SurfaceView surfaceView = (SurfaceView) findView(R.id.preview_view);
             SurfaceHolder surfaceHolder = surfaceView.getHolder();
@@ -109,20 +318,31 @@ public class CaptureMainController extends CSViewController implements SurfaceHo
 
     public void onResume() {
         super.onResume();
-        cameraManager = new CameraManager(this);
+        _metrics.onSessionStart(SystemClock.uptimeMillis());
+        _previewSizePolicy.onSessionStart(_metrics);
+        cameraManager = _camera2 && Camera2Manager.isSupported(activity()) ? new Camera2Manager(this)
+                : new CameraManager(this);
+        // By default one buffer per worker plus one parked and one being filled
+        cameraManager.setPreviewBufferCount(_previewBufferCount >= 0 ? _previewBufferCount
+                : _decodeWorkerCount + 2);
+        cameraManager.setFrameRecorder(_frameRecorder);
+        // Opens while the surface is created, the preview starts once both are there
+        _openingCamera = cameraManager;
+        _cameraReady = false;
+        _cameraOpener.open(cameraManager, _cameraListener);
 
         viewfinderView = (ViewfinderView) findView(R.id.viewfinder_view);
         viewfinderView.setCameraManager(cameraManager);
 
         handler = null;
         _lastResult = null;
+        if (_duplicateFilter != null) _duplicateFilter.clear();
 
         onResetStatus();
 
         SurfaceView surfaceView = (SurfaceView) findView(R.id.preview_view);
         SurfaceHolder surfaceHolder = surfaceView.getHolder();
-        if (hasSurface) initCamera(surfaceHolder);
-        else {
+        if (!hasSurface) {
             surfaceHolder.addCallback(this);
             surfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
         }
@@ -132,12 +352,170 @@ public class CaptureMainController extends CSViewController implements SurfaceHo
         decodeFormats = null;
     }
 
+    /**
+     * @return The policy choosing the preview size from decode times of earlier
+     * sessions, to set its budget or fix its tier before the camera opens.
+     */
+    public PreviewSizePolicy previewSizePolicy() {
+        return _previewSizePolicy;
+    }
+
+    /**
+     * Gives a thumbnail passed to {@link #onDecodeThumbnail} back for reuse by
+     * later results. The bitmap must not be used afterwards.
+     */
+    public void releaseThumbnail(Bitmap thumbnail) {
+        _thumbnails.release(thumbnail);
+    }
+
+    /**
+     * @return The tracker narrowing decoding around candidate points, shared by
+     * the decode threads.
+     */
+    public RegionOfInterestTracker regionOfInterest() {
+        return _regionOfInterest;
+    }
+
     public void restartPreviewAfterDelay(long delayMS) {
         if (handler != null) handler.sendEmptyMessageDelayed(R.id.restart_preview, delayMS);
         onResetStatus();
     }
 
+    /**
+     * Number of decode threads frames are spread over, defaults to the number of
+     * available cores. Set before {@link #onCreate} to keep the warmed up
+     * threads, later the threads are rebuilt when the camera is next
+     * initialized.
+     */
+    public void setDecodeWorkerCount(int count) {
+        _decodeWorkerCount = Math.max(1, count);
+    }
+
+    /**
+     * Number of preview buffers recycled between the camera and the decoder, 0
+     * lets the camera allocate every frame. Defaults to the decode worker count
+     * plus two. Applied on the next resume.
+     */
+    public void setPreviewBufferCount(int count) {
+        _previewBufferCount = count;
+    }
+
+    /**
+     * Character set to decode codes with that do not declare one, null to let
+     * the readers guess. Applied to the decoders right away.
+     */
+    public void setCharacterSet(String characterSet) {
+        _characterSet = characterSet;
+        if (_engine != null) _engine.setHints(hints());
+    }
+
+    /**
+     * Replaces the formats scanned for, all of them if empty. Applied to the
+     * decoders right away, without rebuilding them; changes made through
+     * {@link #getFormats} instead are applied when the camera is next
+     * initialized.
+     */
+    public void setFormats(Collection<BarcodeFormat> formats) {
+        _formats.clear();
+        _formats.addAll(formats);
+        if (_engine != null) _engine.setHints(hints());
+    }
+
+    /**
+     * Runs the camera on the camera2 API, decoding straight from the buffers of
+     * its YUV images, where the device drives its back camera natively with
+     * it. Other devices, and all of them by default, keep the original camera
+     * API. Applied when the scanner is next resumed.
+     */
+    public void setCamera2Enabled(boolean enabled) {
+        _camera2 = enabled;
+    }
+
+    /**
+     * Lets the camera focus on its own in a continuous focus mode where it has
+     * one, instead of sweeping the lens every 1.5 s on request. Frames taken
+     * while the lens moves are not decoded either way. On by default. Applied
+     * when the camera is next opened.
+     */
+    public void setContinuousFocus(boolean enabled) {
+        _continuousFocus = enabled;
+    }
+
+    /**
+     * Keeps scanning after a successful decode instead of waiting for
+     * {@link #restartPreviewAfterDelay}, every new code reaches
+     * {@link #handleDecode}. A code is reported again only once it has not been
+     * seen for duplicateWindowMs. Applied when the camera is next initialized.
+     */
+    public void setContinuousScanning(boolean enabled, long duplicateWindowMs) {
+        _duplicateFilter = enabled ? new DuplicateFilter(duplicateWindowMs) : null;
+    }
+
+    /**
+     * Decodes every code inside the framing rect of a frame instead of stopping
+     * at the first one, results are delivered to {@link #handleDecode(Result[])}
+     * with their result points. Applied when the camera is next initialized.
+     */
+    public void setDecodeMultiple(boolean decodeMultiple) {
+        _decodeMultiple = decodeMultiple;
+    }
+
+    /**
+     * Lowers the frame rate while the device runs on battery and neither a
+     * candidate point nor user interaction was seen for idleDelayMs, autofocus
+     * then runs less often too. Full rate is back with the next candidate or
+     * {@link #onUserInteraction}. By default idle after 10 s, at 2 frames a
+     * second. Applied when the camera is next initialized.
+     *
+     * @param idleDelayMs     0 to always decode at full rate.
+     * @param frameIntervalMs Shortest time between two frames decoded while
+     *                        idle.
+     */
+    public void setIdleThrottling(long idleDelayMs, long frameIntervalMs) {
+        _idleDelayMs = idleDelayMs;
+        _idleFrameIntervalMs = frameIntervalMs;
+    }
+
+    /**
+     * Finishes the activity when the device runs on battery and neither a
+     * result, a candidate point nor user interaction was seen for delayMs.
+     * Off by default, scan screens often have to stay open for a whole shift
+     * and idle throttling already saves the battery meanwhile.
+     *
+     * @param delayMs 0 to never finish, 5 minutes was the old fixed timeout.
+     */
+    public void setInactivityFinish(long delayMs) {
+        _inactivityFinishMs = delayMs;
+        if (inactivityTimer != null) inactivityTimer.setFinishDelay(delayMs);
+    }
+
+    /**
+     * Enables rendering a greyscale thumbnail of the decoded frame, delivered to
+     * {@link #onDecodeThumbnail} after the result. Disabled by default. Applied
+     * when the camera is next initialized.
+     *
+     * @param config     Bitmap.Config.ALPHA_8 for a compact thumbnail holding the
+     *                   grey level in the alpha channel, ARGB_8888 for an opaque
+     *                   one, or null to disable thumbnails.
+     * @param sampleSize Take every sampleSize-th pixel in both directions.
+     */
+    public void setResultThumbnail(Bitmap.Config config, int sampleSize) {
+        _thumbnailConfig = config;
+        _thumbnailSampleSize = Math.max(1, sampleSize);
+    }
+
+    /**
+     * Appends every preview frame to the recorder's capture file until set to
+     * null, to be replayed with {@link cs.codescanner.scanner.decode.FrameReplayer}.
+     * The caller closes the recorder once it is unset.
+     */
+    public void setFrameRecorder(FrameRecorder recorder) {
+        _frameRecorder = recorder;
+        if (cameraManager != null) cameraManager.setFrameRecorder(recorder);
+    }
+
     public void setFlash(boolean isChecked) {
+        onUserInteraction();
         cameraManager.setTorch(isChecked);
     }
 
@@ -148,7 +526,7 @@ public class CaptureMainController extends CSViewController implements SurfaceHo
         if (holder == null) info("*** WARNING *** surfaceCreated() gave us a null surface!");
         if (!hasSurface) {
             hasSurface = true;
-            initCamera(holder);
+            if (_cameraReady) initCamera(holder);
         }
     }
 
@@ -171,8 +549,7 @@ public class CaptureMainController extends CSViewController implements SurfaceHo
     private void initCamera(SurfaceHolder surfaceHolder) {
         try {
             cameraManager.openDriver(surfaceHolder);
-            if (handler == null)
-                handler = new CaptureActivityHandler(this, decodeFormats, null, cameraManager);
+            if (handler == null) handler = new CaptureActivityHandler(this, engine(), cameraManager);
             decodeOrStoreSavedBitmap(null, null);
         } catch (IOException | RuntimeException ioe) {
             error(ioe);
@@ -180,22 +557,68 @@ public class CaptureMainController extends CSViewController implements SurfaceHo
         }
     }
 
+    /**
+     * @return The engine with the current worker count and hints, rebuilt
+     * only if the worker count changed.
+     */
+    private ScannerEngine engine() {
+        if (_engine.getWorkerCount() != _decodeWorkerCount) {
+            _engine.shutdown();
+            _engine = new ScannerEngine(this, hints(), _decodeWorkerCount);
+        } else _engine.setHints(hints());
+        return _engine;
+    }
+
+    private Map<DecodeHintType, Object> hints() {
+        return DecodeThread.buildHints(this, decodeFormats, _characterSet);
+    }
+
     protected void onDecodeDone() {
     }
 
+    /**
+     * The thumbnail belongs to the override until handed back with
+     * {@link #releaseThumbnail}, which is what the default does.
+     */
+    protected void onDecodeThumbnail(Bitmap thumbnail) {
+        releaseThumbnail(thumbnail);
+    }
+
     protected void onFrameworkBug() {
     }
 
     protected void onResetStatus() {
         viewfinderView.setVisibility(View.VISIBLE);
         _lastResult = null;
+        _lastResults = Collections.emptyList();
     }
 
-    CameraManager getCameraManager() {
+    CameraBackend getCameraManager() {
         return cameraManager;
     }
 
+    long getIdleDelay() {
+        return _idleDelayMs;
+    }
+
+    long getIdleFrameInterval() {
+        return _idleFrameIntervalMs;
+    }
+
+    boolean isFinishingWhenInactive() {
+        return _inactivityFinishMs > 0;
+    }
+
+    ThumbnailRenderer newThumbnailRenderer() {
+        if (_thumbnailConfig == null) return null;
+        return new ThumbnailRenderer(_thumbnails, _thumbnailConfig, _thumbnailSampleSize);
+    }
+
     ViewfinderView getViewfinderView() {
         return viewfinderView;
     }
+
+    boolean isCharging() {
+        return inactivityTimer.isCharging();
+    }
 }
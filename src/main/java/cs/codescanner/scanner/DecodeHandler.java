@@ -1,61 +1,113 @@
 package cs.codescanner.scanner;
 
-import static cs.java.lang.CSLang.is;
+import static cs.java.lang.CSLang.info;
 
 import java.util.Map;
 
-import android.os.Bundle;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 
-import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
 import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
 
 import cs.codescanner.R;
-import cs.codescanner.scanner.camera.CameraManager;
+import cs.codescanner.scanner.camera.CameraBackend;
+import cs.codescanner.scanner.decode.DecodeOutcome;
+import cs.codescanner.scanner.decode.DecoderWarmUp;
+import cs.codescanner.scanner.decode.FrameDecoder;
+import cs.codescanner.scanner.decode.FrameLuminanceSource;
 
 final class DecodeHandler extends Handler {
 
+	private static final int WARM_UP_ROUNDS = 4;
+
 	private final CaptureMainController activity;
-	private final MultiFormatReader multiFormatReader;
+	private final DecodePool pool;
+	private final int worker;
+	private final FrameDecoder decoder;
+	private ThumbnailRenderer thumbnailRenderer;
+	private final Rect crop = new Rect();
 	private boolean running = true;
 
-	DecodeHandler(CaptureMainController activity, Map<DecodeHintType, Object> hints) {
-		multiFormatReader = new MultiFormatReader();
-		multiFormatReader.setHints(hints);
+	DecodeHandler(CaptureMainController activity, DecodePool pool, int worker, FrameDecoder decoder) {
 		this.activity = activity;
+		this.pool = pool;
+		this.worker = worker;
+		this.decoder = decoder;
+		thumbnailRenderer = activity.newThumbnailRenderer();
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override public void handleMessage(Message message) {
 		if (!running) return;
-		if (message.what == R.id.decode) decode((byte[]) message.obj, message.arg1, message.arg2);
+		if (message.what == R.id.decode) decode(message.obj, message.arg1, message.arg2);
+		else if (message.what == R.id.resume) {
+			// Settings applied when a session starts
+			decoder.setDecodingMultiple(message.arg1 != 0);
+			thumbnailRenderer = activity.newThumbnailRenderer();
+		} else if (message.what == R.id.set_hints)
+			decoder.setHints((Map<DecodeHintType, Object>) message.obj);
+		else if (message.what == R.id.warm_up) warmUp();
 		else if (message.what == R.id.quit) {
 			running = false;
 			Looper.myLooper().quit();
 		}
 	}
 
-	private void decode(byte[] data, int width, int height) {
+	private void decode(Object data, int width, int height) {
+		CameraBackend cameraManager = activity.getCameraManager();
+		RegionOfInterestTracker regionOfInterest = activity.regionOfInterest();
+		boolean narrowed = false;
+		boolean found = false;
 		try {
-			CameraManager cameraManager = activity.getCameraManager();
-			PlanarYUVLuminanceSource source = cameraManager.buildLuminanceSource(data, width, height);
-			BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-			Result rawResult = multiFormatReader.decodeWithState(bitmap);
-			Message message = Message.obtain(activity.handler(), R.id.decode_succeeded, rawResult);
-			Bundle bundle = new Bundle();
-			bundle.putParcelable(DecodeThread.BARCODE_BITMAP, source.renderCroppedGreyscaleBitmap());
-			message.setData(bundle);
-			message.sendToTarget();
+			Rect frame = cameraManager.getFramingRectInPreview();
+			// Other codes may lie outside the region a single one is tracked in
+			if (!decoder.isDecodingMultiple()) narrowed = regionOfInterest.crop(frame, crop);
+			else crop.set(frame);
+			FrameLuminanceSource source = cameraManager.buildLuminanceSource(data, width, height, crop);
+			DecodeOutcome outcome = decoder.decode(source, crop.left - frame.left, crop.top - frame.top);
+			activity.metrics().onFrameDecoded(outcome);
+			// Frames keep streaming in, a miss needs no answer
+			if (!outcome.isFound()) return;
+			found = true;
+			if (!pool.claimSuccess(worker)) return;
+			Result[] rawResults = outcome.getResults();
+			if (!decoder.isDecodingMultiple()) {
+				if (!activity.acceptResult(rawResults[0])) return;
+				Message.obtain(activity.handler(), R.id.decode_succeeded, rawResults[0]).sendToTarget();
+				resultPosted(rawResults[0]);
+			} else {
+				rawResults = activity.acceptResults(rawResults);
+				if (rawResults.length == 0) return;
+				Message.obtain(activity.handler(), R.id.decode_multiple_succeeded, rawResults)
+						.sendToTarget();
+				resultPosted(rawResults[0]);
+			}
+			// Rendered after the result is out, the frame is still ours until released
+			if (thumbnailRenderer != null) Message.obtain(activity.handler(), R.id.decode_thumbnail,
+					thumbnailRenderer.render(source)).sendToTarget();
 		} catch (Exception ex) {
-			if (is(activity.handler()))
-				Message.obtain(activity.handler(), R.id.decode_failed).sendToTarget();
+			// A frame the decoder chokes on is just a frame without a code
 		} finally {
-			multiFormatReader.reset();
+			regionOfInterest.onFrameDone(narrowed, found);
+			cameraManager.releasePreviewBuffer(data);
+			pool.onWorkerIdle(worker);
 		}
 	}
 
+	private void warmUp() {
+		long start = SystemClock.uptimeMillis();
+		int found = DecoderWarmUp.run(WARM_UP_ROUNDS);
+		info(Thread.currentThread().getName() + " warmed up in " + (SystemClock.uptimeMillis() - start)
+				+ " ms, " + found + " frames found");
+	}
+
+	private void resultPosted(Result result) {
+		long now = SystemClock.uptimeMillis();
+		activity.metrics().onResult(result, now - pool.frameTime(worker), now);
+	}
+
 }
@@ -0,0 +1,286 @@
+package cs.codescanner.scanner;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.ResultPointCallback;
+
+import java.util.Map;
+
+import cs.codescanner.R;
+
+/**
+ * Spreads preview frames over several {@link DecodeThread} workers. Frames are
+ * dispatched as they arrive, a frame which is still waiting for a worker when a
+ * newer one lands is dropped so decoding never falls behind the camera. Unless
+ * scanning continuously, the first successful decode of a round cancels the
+ * frames still in flight, their outcome is not reported, and later frames are
+ * dropped until {@link #restart}.
+ *
+ * The workers are started once and outlive a session: {@link #pause} stops
+ * dispatching and waits for the frames in flight, {@link #resume} picks up
+ * again with the settings of the new session, {@link #quit} ends the threads.
+ */
+final class DecodePool {
+
+    private final class DispatchHandler extends Handler {
+        @Override public void handleMessage(Message message) {
+            // The message was sent as the frame arrived
+            if (message.what == R.id.decode)
+                offer(message.obj, message.arg1, message.arg2, message.getWhen());
+        }
+    }
+
+    private static final long QUIT_TIMEOUT_MS = 500L;
+
+    private final CaptureMainController _main;
+    private final DecodeThread[] _workers;
+    private final boolean[] _busy;
+    private final int[] _workerRound;
+    private final long[] _workerFrameTime;
+    private final Handler _dispatchHandler = new DispatchHandler();
+    private volatile ResultPointCallback _resultPointCallback;
+    private boolean _cancelOnSuccess;
+    private Object _pendingData;
+    private int _pendingWidth;
+    private int _pendingHeight;
+    private long _pendingFrameTime;
+    private int _round;
+    private boolean _running;
+    /**
+     * Set by the success cancelling the others, frames are dropped until the
+     * preview restarts.
+     */
+    private boolean _won;
+
+    DecodePool(CaptureMainController main, Map<DecodeHintType, Object> hints, int workerCount) {
+        _main = main;
+        int count = Math.max(1, workerCount);
+        _workers = new DecodeThread[count];
+        _busy = new boolean[count];
+        _workerRound = new int[count];
+        _workerFrameTime = new long[count];
+        for (int i = 0; i < count; i++)
+            _workers[i] = new DecodeThread(main, this, i, hints);
+    }
+
+    void start() {
+        for (DecodeThread worker : _workers) worker.start();
+    }
+
+    int getWorkerCount() {
+        return _workers.length;
+    }
+
+    /**
+     * @return The callback of the current session for candidate points, null
+     * while paused.
+     */
+    ResultPointCallback getResultPointCallback() {
+        return _resultPointCallback;
+    }
+
+    /**
+     * Starts taking frames for a new session.
+     *
+     * @param cancelOnSuccess Whether the first success of a round cancels the
+     *                        other frames in flight.
+     * @param multiple        Whether to find every code in a frame.
+     */
+    void resume(ResultPointCallback resultPointCallback, boolean cancelOnSuccess, boolean multiple) {
+        _resultPointCallback = resultPointCallback;
+        // Queued ahead of the first frame of the session
+        sendToWorkers(R.id.resume, multiple ? 1 : 0, null);
+        synchronized (this) {
+            _cancelOnSuccess = cancelOnSuccess;
+            _running = true;
+            _won = false;
+        }
+    }
+
+    /**
+     * Has the workers use other hints from their next frame on.
+     */
+    void setHints(Map<DecodeHintType, Object> hints) {
+        sendToWorkers(R.id.set_hints, 0, hints);
+    }
+
+    /**
+     * Has every worker decode synthetic frames before the first real one.
+     */
+    void warmUp() {
+        sendToWorkers(R.id.warm_up, 0, null);
+    }
+
+    /**
+     * @return The handler preview frames are sent to, as R.id.decode messages.
+     */
+    Handler getHandler() {
+        return _dispatchHandler;
+    }
+
+    /**
+     * Hands the frame to an idle worker or parks it until one is free, replacing
+     * the frame parked before.
+     */
+    void offer(Object data, int width, int height, long frameTime) {
+        Object dropped = null;
+        int worker;
+        synchronized (this) {
+            boolean accepting = _running && !_won;
+            if (!accepting) dropped = data;
+            worker = accepting ? idleWorker() : -1;
+            if (worker >= 0) {
+                _busy[worker] = true;
+                _workerRound[worker] = _round;
+                _workerFrameTime[worker] = frameTime;
+            } else if (accepting) {
+                dropped = _pendingData;
+                _pendingData = data;
+                _pendingWidth = width;
+                _pendingHeight = height;
+                _pendingFrameTime = frameTime;
+            }
+        }
+        if (dropped != null) drop(dropped);
+        if (worker >= 0) send(worker, data, width, height);
+    }
+
+    /**
+     * Called by a worker once its frame is done, gives it the parked frame if
+     * there is one.
+     */
+    void onWorkerIdle(int worker) {
+        Object data;
+        int width;
+        int height;
+        synchronized (this) {
+            data = _running ? _pendingData : null;
+            if (data == null) {
+                _busy[worker] = false;
+                notifyAll();
+                return;
+            }
+            width = _pendingWidth;
+            height = _pendingHeight;
+            _pendingData = null;
+            _workerRound[worker] = _round;
+            _workerFrameTime[worker] = _pendingFrameTime;
+        }
+        send(worker, data, width, height);
+    }
+
+    /**
+     * @return Uptime in milliseconds at which the frame the worker decodes
+     * arrived from the camera.
+     */
+    synchronized long frameTime(int worker) {
+        return _workerFrameTime[worker];
+    }
+
+    /**
+     * @return Whether the frame the worker is decoding still counts, i.e. no
+     * other worker has succeeded since it was dispatched.
+     */
+    private synchronized boolean isCurrent(int worker) {
+        return _running && _workerRound[worker] == _round;
+    }
+
+    /**
+     * Reports a successful decode. When cancelling on success only the first
+     * success of a round wins, it drops the parked frame and cancels the frames
+     * other workers still decode.
+     *
+     * @return true if the worker should deliver its result.
+     */
+    boolean claimSuccess(int worker) {
+        Object dropped;
+        synchronized (this) {
+            if (!isCurrent(worker)) return false;
+            if (!_cancelOnSuccess) return true;
+            _round++;
+            _won = true;
+            dropped = _pendingData;
+            _pendingData = null;
+        }
+        if (dropped != null) drop(dropped);
+        return true;
+    }
+
+    /**
+     * Takes frames again after a success stopped them.
+     */
+    synchronized void restart() {
+        _won = false;
+    }
+
+    /**
+     * Stops dispatching and drops the parked frame. Waits a while for the
+     * frames the workers still decode, they go back to the camera before it
+     * closes and their outcome is not reported.
+     */
+    void pause() {
+        Object dropped;
+        synchronized (this) {
+            _running = false;
+            _round++;
+            dropped = _pendingData;
+            _pendingData = null;
+        }
+        _resultPointCallback = null;
+        _dispatchHandler.removeMessages(R.id.decode);
+        if (dropped != null) drop(dropped);
+        long deadline = SystemClock.uptimeMillis() + QUIT_TIMEOUT_MS;
+        synchronized (this) {
+            for (long wait = QUIT_TIMEOUT_MS; idleWorkers() < _busy.length && wait > 0;
+                 wait = deadline - SystemClock.uptimeMillis())
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    break;
+                }
+        }
+    }
+
+    void quit() {
+        pause();
+        sendToWorkers(R.id.quit, 0, null);
+        long deadline = SystemClock.uptimeMillis() + QUIT_TIMEOUT_MS;
+        for (DecodeThread worker : _workers)
+            try {
+                long wait = deadline - SystemClock.uptimeMillis();
+                if (wait > 0) worker.join(wait);
+            } catch (InterruptedException e) {
+            }
+    }
+
+    private void drop(Object data) {
+        _main.metrics().onFrameDropped();
+        _main.getCameraManager().releasePreviewBuffer(data);
+    }
+
+    private int idleWorker() {
+        for (int i = 0; i < _busy.length; i++)
+            if (!_busy[i]) return i;
+        return -1;
+    }
+
+    private int idleWorkers() {
+        int idle = 0;
+        for (boolean busy : _busy)
+            if (!busy) idle++;
+        return idle;
+    }
+
+    private void send(int worker, Object data, int width, int height) {
+        Message.obtain(_workers[worker].getHandler(), R.id.decode, width, height, data).sendToTarget();
+    }
+
+    private void sendToWorkers(int what, int arg1, Object obj) {
+        for (DecodeThread worker : _workers)
+            Message.obtain(worker.getHandler(), what, arg1, 0, obj).sendToTarget();
+    }
+
+}
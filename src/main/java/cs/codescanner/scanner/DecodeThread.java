@@ -11,40 +11,64 @@ import android.os.Looper;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.DecodeHintType;
+import com.google.zxing.ResultPoint;
 import com.google.zxing.ResultPointCallback;
 
+import cs.codescanner.scanner.decode.FrameDecoder;
+
 /**
- * This thread does all the heavy lifting of decoding the images.
+ * This thread does all the heavy lifting of decoding the images. It lives as
+ * long as its {@link ScannerEngine}, across pause and resume, and keeps its
+ * decoder; candidate points go to the callback of the current session.
  * 
  * @author dswitkin@google.com (Daniel Switkin)
  */
 final class DecodeThread extends Thread {
 
-	public static final String BARCODE_BITMAP = "barcode_bitmap";
+	/**
+	 * The hints every decoder of the controller uses, the controller's formats
+	 * unless decodeFormats are given. The formats are copied, so hints built
+	 * from the same settings are equal.
+	 */
+	static Map<DecodeHintType, Object> buildHints(CaptureMainController main,
+			Collection<BarcodeFormat> decodeFormats, String characterSet) {
+		Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+		Collection<BarcodeFormat> formats = EnumSet.noneOf(BarcodeFormat.class);
+		formats.addAll(decodeFormats == null || decodeFormats.isEmpty() ? main.getFormats() : decodeFormats);
+		hints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+		if (characterSet != null) hints.put(DecodeHintType.CHARACTER_SET, characterSet);
+		return hints;
+	}
 
 	private final CaptureMainController _main;
-	private final Map<DecodeHintType, Object> _hints;
+	private final DecodePool _pool;
+	private final int _index;
+	private final FrameDecoder _decoder;
 	private Handler _handler;
 	private final CountDownLatch _handlerInitLatch;
 
-	DecodeThread(CaptureMainController activity, Collection<BarcodeFormat> decodeFormats, String characterSet,
-			ResultPointCallback resultPointCallback) {
+	DecodeThread(CaptureMainController activity, final DecodePool pool, int index,
+			Map<DecodeHintType, Object> hints) {
+		super("DecodeThread-" + index);
 		this._main = activity;
+		_pool = pool;
+		_index = index;
 		_handlerInitLatch = new CountDownLatch(1);
-		_hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
-		if (decodeFormats == null || decodeFormats.isEmpty()) {
-			decodeFormats = EnumSet.noneOf(BarcodeFormat.class);
-			decodeFormats.addAll(_main.getFormats());
-		}
-		_hints.put(DecodeHintType.POSSIBLE_FORMATS, decodeFormats);
-
-		if (characterSet != null) _hints.put(DecodeHintType.CHARACTER_SET, characterSet);
-		_hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, resultPointCallback);
+		final RegionOfInterestTracker regionOfInterest = _main.regionOfInterest();
+		ResultPointCallback pointCallback = new ResultPointCallback() {
+			public void foundPossibleResultPoint(ResultPoint point) {
+				regionOfInterest.addPoint(point.getX(), point.getY());
+				ResultPointCallback resultPointCallback = pool.getResultPointCallback();
+				if (resultPointCallback != null) resultPointCallback.foundPossibleResultPoint(point);
+			}
+		};
+		_decoder = new FrameDecoder(hints, _main.isDecodingMultiple(), pointCallback, _main.frameQualityGate(),
+				_main.binarizerStrategy(), _main.formatStatistics(), _main.decodePyramid());
 	}
 
 	@Override public void run() {
 		Looper.prepare();
-		_handler = new DecodeHandler(_main, _hints);
+		_handler = new DecodeHandler(_main, _pool, _index, _decoder);
 		_handlerInitLatch.countDown();
 		Looper.loop();
 	}
@@ -0,0 +1,50 @@
+package cs.codescanner.scanner;
+
+import com.google.zxing.Result;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the codes reported during continuous scanning, keyed by format and
+ * text, so a code held in view is not reported again until it has been out of
+ * sight for the configured window. Holds at most {@link #MAX_ENTRIES} codes,
+ * the least recently seen are forgotten first.
+ */
+final class DuplicateFilter {
+
+    private static final int MAX_ENTRIES = 64;
+
+    private final Map<String, Long> _lastSeen = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final long _windowMs;
+
+    DuplicateFilter(long windowMs) {
+        _windowMs = windowMs;
+    }
+
+    /**
+     * @param now Current time in milliseconds, from a monotonic clock.
+     * @return true if the result is new or was last seen longer than the window
+     * ago, false if it should be suppressed.
+     */
+    synchronized boolean accept(Result result, long now) {
+        for (Iterator<Long> seen = _lastSeen.values().iterator(); seen.hasNext(); )
+            if (now - seen.next() >= _windowMs) seen.remove();
+            else break;
+        String key = result.getBarcodeFormat() + ":" + result.getText();
+        // Re-inserted so the map stays ordered by last sighting
+        boolean known = _lastSeen.remove(key) != null;
+        _lastSeen.put(key, now);
+        return !known;
+    }
+
+    synchronized void clear() {
+        _lastSeen.clear();
+    }
+
+}
@@ -15,7 +15,8 @@ import android.content.IntentFilter;
 
 /**
  * Finishes an activity after a period of inactivity if the device is on battery
- * power.
+ * power. Off unless given a delay, idle throttling already saves the battery
+ * of a scanner that has to stay open.
  */
 final class InactivityTimer {
 
@@ -33,21 +34,28 @@ final class InactivityTimer {
 				// 0 indicates that we're on battery
 				// In Android 2.0+, use BatteryManager.EXTRA_PLUGGED
 				int batteryPlugged = intent.getIntExtra("plugged", -1);
-				if (batteryPlugged > 0) cancel();
+				charging = batteryPlugged > 0;
+				if (charging) cancel();
 			}
 		}
 	}
-	private static final int INACTIVITY_DELAY_SECONDS = 5 * 60;
 	private final ScheduledExecutorService inactivityTimer = Executors
 			.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
 	private final Activity activity;
 
 	private ScheduledFuture<?> inactivityFuture = null;
+	private long finishDelayMs;
+	private volatile boolean charging;
 
 	private final BroadcastReceiver powerStatusReceiver = new PowerStatusReceiver();
 
-	InactivityTimer(Activity activity) {
+	/**
+	 * @param finishDelayMs Inactivity after which the activity is finished, 0
+	 *          to never finish it.
+	 */
+	InactivityTimer(Activity activity, long finishDelayMs) {
 		this.activity = activity;
+		this.finishDelayMs = finishDelayMs;
 		onActivity();
 	}
 
@@ -61,12 +69,25 @@ final class InactivityTimer {
 		onActivity();
 	}
 
+	/**
+	 * @return true if the last battery broadcast reported the device plugged
+	 *         in.
+	 */
+	boolean isCharging() {
+		return charging;
+	}
+
+	void setFinishDelay(long finishDelayMs) {
+		this.finishDelayMs = finishDelayMs;
+		onActivity();
+	}
+
 	void onActivity() {
 		cancel();
-		if (!inactivityTimer.isShutdown())
+		if (finishDelayMs > 0 && !inactivityTimer.isShutdown())
 			try {
 				inactivityFuture = inactivityTimer.schedule(new FinishListener(activity),
-						INACTIVITY_DELAY_SECONDS, TimeUnit.SECONDS);
+						finishDelayMs, TimeUnit.MILLISECONDS);
 			} catch (RejectedExecutionException ree) {
 				// surprising, but could be normal if for some reason the implementation
 				// just doesn't
@@ -0,0 +1,85 @@
+package cs.codescanner.scanner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in milliseconds into {@link #BUCKETS} fixed power of two
+ * buckets: bucket 0 holds 0 ms, bucket i durations from 2^(i-1) up to 2^i - 1
+ * ms and the last one everything longer. Recording is lock and allocation free
+ * so it can stay on permanently and be fed from any thread.
+ */
+public final class LatencyHistogram {
+
+    public static final int BUCKETS = 16;
+
+    /**
+     * @return The longest duration bucket i holds, Long.MAX_VALUE for the last.
+     */
+    public static long bucketUpperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    private static int bucket(long millis) {
+        if (millis <= 0) return 0;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _total = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    public void record(long millis) {
+        _counts.incrementAndGet(bucket(millis));
+        _count.incrementAndGet();
+        _total.addAndGet(millis);
+        for (long max = _max.get(); millis > max; max = _max.get())
+            if (_max.compareAndSet(max, millis)) break;
+    }
+
+    /**
+     * Copies the count of each bucket.
+     */
+    public void getBuckets(long[] into) {
+        for (int i = 0; i < BUCKETS; i++) into[i] = _counts.get(i);
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public long getMax() {
+        return _max.get();
+    }
+
+    public long getMean() {
+        long count = _count.get();
+        return count == 0 ? 0 : _total.get() / count;
+    }
+
+    /**
+     * @param fraction 0.5 for the median, 0.99 for the 99th percentile.
+     * @return The upper bound of the bucket the percentile falls in, 0 if
+     * nothing was recorded.
+     */
+    public long getPercentile(float fraction) {
+        long count = _count.get();
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += _counts.get(i);
+            if (seen >= rank) return Math.min(bucketUpperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) _counts.set(i, 0);
+        _count.set(0);
+        _total.set(0);
+        _max.set(0);
+    }
+
+}
@@ -0,0 +1,114 @@
+package cs.codescanner.scanner;
+
+import android.graphics.Rect;
+
+/**
+ * Narrows decoding to the part of the framing rect where the decoder recently
+ * saw candidate finder and guard points. Once {@link #MIN_POINTS} points of the
+ * last {@link #RECENT_FRAMES} frames cluster in a fraction of the framing rect,
+ * frames are cropped to their bounding box plus a margin. After
+ * {@link #MAX_MISSES} narrowed frames without a result, or after a result, the
+ * points are forgotten and the full framing rect is used again.
+ *
+ * Points are in framing rect coordinates, as drawn by {@link ViewfinderView}.
+ * Shared by all decode threads.
+ */
+public final class RegionOfInterestTracker {
+
+    private static final int CAPACITY = 32;
+    private static final int MIN_POINTS = 3;
+    private static final int RECENT_FRAMES = 4;
+    private static final int MAX_MISSES = 4;
+    private static final int MIN_MARGIN = 24;
+    private static final int MIN_SIZE = 96;
+    private static final float MAX_AREA_FRACTION = 0.6f;
+
+    private final float[] _x = new float[CAPACITY];
+    private final float[] _y = new float[CAPACITY];
+    private final long[] _frame = new long[CAPACITY];
+    private int _count;
+    private int _next;
+    private long _frames;
+    private int _misses;
+    private boolean _enabled = true;
+
+    synchronized void addPoint(float x, float y) {
+        _x[_next] = x;
+        _y[_next] = y;
+        _frame[_next] = _frames;
+        _next = (_next + 1) % CAPACITY;
+        if (_count < CAPACITY) _count++;
+    }
+
+    /**
+     * Computes the rect the next frame is decoded in.
+     *
+     * @param frame The framing rect in preview coordinates.
+     * @param into  Receives the crop, the framing rect itself unless narrowed.
+     * @return true if the crop is narrower than the framing rect.
+     */
+    synchronized boolean crop(Rect frame, Rect into) {
+        into.set(frame);
+        if (!_enabled) return false;
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        int recent = 0;
+        for (int i = 0; i < _count; i++) {
+            if (_frames - _frame[i] >= RECENT_FRAMES) continue;
+            left = Math.min(left, _x[i]);
+            top = Math.min(top, _y[i]);
+            right = Math.max(right, _x[i]);
+            bottom = Math.max(bottom, _y[i]);
+            recent++;
+        }
+        if (recent < MIN_POINTS) return false;
+        int margin = Math.max(MIN_MARGIN, (int) (Math.max(right - left, bottom - top) / 2));
+        int centerX = frame.left + (int) ((left + right) / 2);
+        int centerY = frame.top + (int) ((top + bottom) / 2);
+        int halfWidth = Math.max(MIN_SIZE, (int) (right - left) + 2 * margin) / 2;
+        int halfHeight = Math.max(MIN_SIZE, (int) (bottom - top) + 2 * margin) / 2;
+        into.set(centerX - halfWidth, centerY - halfHeight, centerX + halfWidth, centerY + halfHeight);
+        if (!into.intersect(frame)) {
+            into.set(frame);
+            return false;
+        }
+        if (into.width() * into.height() > MAX_AREA_FRACTION * frame.width() * frame.height()) {
+            into.set(frame);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reports the outcome of a frame.
+     *
+     * @param narrowed Whether it was decoded in a crop returned by {@link #crop}.
+     * @param found    Whether it decoded.
+     */
+    synchronized void onFrameDone(boolean narrowed, boolean found) {
+        _frames++;
+        if (found) forget();
+        else if (narrowed && ++_misses >= MAX_MISSES) forget();
+    }
+
+    public synchronized boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * @param enabled false to always decode the whole framing rect.
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        _enabled = enabled;
+        forget();
+    }
+
+    private void forget() {
+        _count = 0;
+        _next = 0;
+        _misses = 0;
+    }
+
+}
@@ -0,0 +1,85 @@
+package cs.codescanner.scanner;
+
+import android.os.Handler;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.ResultPointCallback;
+
+import java.util.Map;
+
+/**
+ * The decode threads of a controller with the readers they own, built once
+ * and kept across pause and resume instead of being torn down with every
+ * session. Each worker decodes synthetic frames as soon as it starts, while the
+ * camera is still opening, so the first frames of a session run through loaded
+ * and compiled code. Formats and character set are swapped in place: the
+ * workers reconfigure their readers between two frames.
+ */
+final class ScannerEngine {
+
+    private final DecodePool _pool;
+    private Map<DecodeHintType, Object> _hints;
+
+    ScannerEngine(CaptureMainController main, Map<DecodeHintType, Object> hints, int workerCount) {
+        _hints = hints;
+        _pool = new DecodePool(main, hints, workerCount);
+        _pool.start();
+        _pool.warmUp();
+    }
+
+    /**
+     * @return The handler preview frames are sent to, as R.id.decode messages.
+     */
+    Handler getHandler() {
+        return _pool.getHandler();
+    }
+
+    int getWorkerCount() {
+        return _pool.getWorkerCount();
+    }
+
+    /**
+     * Starts decoding the frames of a new session.
+     *
+     * @param resultPointCallback Receives the candidate points of the session.
+     * @param cancelOnSuccess     Whether the first success cancels the other
+     *                            frames in flight, when not scanning
+     *                            continuously.
+     * @param multiple            Whether to find every code in a frame.
+     */
+    void resume(ResultPointCallback resultPointCallback, boolean cancelOnSuccess, boolean multiple) {
+        _pool.resume(resultPointCallback, cancelOnSuccess, multiple);
+    }
+
+    /**
+     * Takes frames again after the first success of a scan stopped them.
+     */
+    void restart() {
+        _pool.restart();
+    }
+
+    /**
+     * Stops decoding until the next {@link #resume}, keeping the threads.
+     */
+    void pause() {
+        _pool.pause();
+    }
+
+    /**
+     * Has the workers decode with other formats or character set from their
+     * next frame on. Does nothing if the hints did not change.
+     */
+    void setHints(Map<DecodeHintType, Object> hints) {
+        if (hints.equals(_hints)) return;
+        _hints = hints;
+        _pool.setHints(hints);
+    }
+
+    /**
+     * Ends the threads, the engine is of no use afterwards.
+     */
+    void shutdown() {
+        _pool.quit();
+    }
+
+}
@@ -0,0 +1,238 @@
+package cs.codescanner.scanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import cs.codescanner.scanner.decode.DecodeOutcome;
+
+/**
+ * Counters and latency histograms of the whole scanning pipeline, from frames
+ * the camera delivers to results reaching the controller. Fed by the preview
+ * and autofocus callbacks, the decode pool and the decode threads; read by the
+ * host app through {@link CaptureMainController#metrics}. Recording only
+ * touches primitive counters and fixed bucket histograms, so it is always on.
+ *
+ * A {@link Listener} can follow the events as they happen. It is called on
+ * the thread that records them, so it should be as cheap.
+ */
+public final class ScannerMetrics {
+
+    public interface Listener {
+
+        /**
+         * Called on a decode thread after each frame it decoded or rejected.
+         *
+         * @param format Format of the first result, null unless found.
+         */
+        void onFrameDecoded(DecodeOutcome.Status status, BarcodeFormat format, long decodeNanos);
+
+        /**
+         * Called on a decode thread when a result is posted to the controller.
+         *
+         * @param timeToFirstDecodeMs Time since the session started if this is
+         *                            its first result, -1 otherwise.
+         */
+        void onResult(BarcodeFormat format, long cameraToResultMs, long timeToFirstDecodeMs);
+
+        /**
+         * Called on the main thread when an autofocus cycle ends.
+         */
+        void onAutoFocus(boolean success, long durationMs);
+
+    }
+
+    private static final BarcodeFormat[] FORMATS = BarcodeFormat.values();
+
+    private final AtomicLong _framesDelivered = new AtomicLong();
+    private final AtomicLong _framesDropped = new AtomicLong();
+    private final AtomicLong _framesRejected = new AtomicLong();
+    private final AtomicLong _framesDecoded = new AtomicLong();
+    private final AtomicLong _framesFound = new AtomicLong();
+    private final AtomicLong _autoFocusCycles = new AtomicLong();
+    private final AtomicLong _autoFocusSuccesses = new AtomicLong();
+    private final AtomicLong _sessionStart = new AtomicLong(-1);
+    private final LatencyHistogram[] _decodeLatency = new LatencyHistogram[DecodeOutcome.Status.values().length];
+    private final LatencyHistogram[] _formatLatency = new LatencyHistogram[FORMATS.length];
+    private final LatencyHistogram _cameraToResult = new LatencyHistogram();
+    private final LatencyHistogram _autoFocusLatency = new LatencyHistogram();
+    private final LatencyHistogram _timeToFirstDecode = new LatencyHistogram();
+    private final LatencyHistogram _cameraOpen = new LatencyHistogram();
+    private final LatencyHistogram _cameraConfigure = new LatencyHistogram();
+    private volatile Listener _listener;
+
+    ScannerMetrics() {
+        for (int i = 0; i < _decodeLatency.length; i++) _decodeLatency[i] = new LatencyHistogram();
+        for (int i = 0; i < _formatLatency.length; i++) _formatLatency[i] = new LatencyHistogram();
+    }
+
+    /**
+     * @return Frames the camera handed to the preview callback.
+     */
+    public long getFramesDelivered() {
+        return _framesDelivered.get();
+    }
+
+    /**
+     * @return Frames given back to the camera undecoded, because nobody asked
+     * for them or a newer frame replaced them while waiting for a worker.
+     */
+    public long getFramesDropped() {
+        return _framesDropped.get();
+    }
+
+    /**
+     * @return Frames the quality gate turned away.
+     */
+    public long getFramesRejected() {
+        return _framesRejected.get();
+    }
+
+    /**
+     * @return Frames run through the decoder, with or without a result.
+     */
+    public long getFramesDecoded() {
+        return _framesDecoded.get();
+    }
+
+    public long getFramesFound() {
+        return _framesFound.get();
+    }
+
+    public long getAutoFocusCycles() {
+        return _autoFocusCycles.get();
+    }
+
+    public long getAutoFocusSuccesses() {
+        return _autoFocusSuccesses.get();
+    }
+
+    /**
+     * @return Duration of autofocus cycles, from request to callback.
+     */
+    public LatencyHistogram autoFocusLatency() {
+        return _autoFocusLatency;
+    }
+
+    /**
+     * @return Time the camera driver took to open.
+     */
+    public LatencyHistogram cameraOpenLatency() {
+        return _cameraOpen;
+    }
+
+    /**
+     * @return Time from the camera being open to its parameters being set.
+     */
+    public LatencyHistogram cameraConfigureLatency() {
+        return _cameraConfigure;
+    }
+
+    /**
+     * @return Time from a frame arriving from the camera to its result being
+     * posted to the controller.
+     */
+    public LatencyHistogram cameraToResultLatency() {
+        return _cameraToResult;
+    }
+
+    /**
+     * @return Decode time of frames with the given outcome, quality gate
+     * included.
+     */
+    public LatencyHistogram decodeLatency(DecodeOutcome.Status status) {
+        return _decodeLatency[status.ordinal()];
+    }
+
+    /**
+     * @return Decode time of frames found with the given format.
+     */
+    public LatencyHistogram decodeLatency(BarcodeFormat format) {
+        return _formatLatency[format.ordinal()];
+    }
+
+    /**
+     * @return Time from the start of a scanning session, the controller
+     * resuming, to its first result.
+     */
+    public LatencyHistogram timeToFirstDecode() {
+        return _timeToFirstDecode;
+    }
+
+    public void reset() {
+        _framesDelivered.set(0);
+        _framesDropped.set(0);
+        _framesRejected.set(0);
+        _framesDecoded.set(0);
+        _framesFound.set(0);
+        _autoFocusCycles.set(0);
+        _autoFocusSuccesses.set(0);
+        for (LatencyHistogram histogram : _decodeLatency) histogram.reset();
+        for (LatencyHistogram histogram : _formatLatency) histogram.reset();
+        _cameraToResult.reset();
+        _autoFocusLatency.reset();
+        _timeToFirstDecode.reset();
+        _cameraOpen.reset();
+        _cameraConfigure.reset();
+    }
+
+    /**
+     * @param listener null to stop listening.
+     */
+    public void setListener(Listener listener) {
+        _listener = listener;
+    }
+
+    public void onAutoFocus(boolean success, long durationMs) {
+        _autoFocusCycles.incrementAndGet();
+        if (success) _autoFocusSuccesses.incrementAndGet();
+        _autoFocusLatency.record(durationMs);
+        Listener listener = _listener;
+        if (listener != null) listener.onAutoFocus(success, durationMs);
+    }
+
+    void onCameraOpened(long openMs, long configureMs) {
+        _cameraOpen.record(openMs);
+        _cameraConfigure.record(configureMs);
+    }
+
+    public void onFrameDelivered() {
+        _framesDelivered.incrementAndGet();
+    }
+
+    public void onFrameDropped() {
+        _framesDropped.incrementAndGet();
+    }
+
+    void onFrameDecoded(DecodeOutcome outcome) {
+        DecodeOutcome.Status status = outcome.getStatus();
+        long nanos = outcome.getTotalNanos();
+        long millis = nanos / 1000000;
+        BarcodeFormat format = null;
+        if (status == DecodeOutcome.Status.REJECTED) _framesRejected.incrementAndGet();
+        else _framesDecoded.incrementAndGet();
+        if (status == DecodeOutcome.Status.FOUND) {
+            _framesFound.incrementAndGet();
+            format = outcome.getResults()[0].getBarcodeFormat();
+            _formatLatency[format.ordinal()].record(millis);
+        }
+        _decodeLatency[status.ordinal()].record(millis);
+        Listener listener = _listener;
+        if (listener != null) listener.onFrameDecoded(status, format, nanos);
+    }
+
+    void onResult(Result result, long cameraToResultMs, long now) {
+        _cameraToResult.record(cameraToResultMs);
+        long sessionStart = _sessionStart.getAndSet(-1);
+        long timeToFirstDecode = sessionStart < 0 ? -1 : now - sessionStart;
+        if (timeToFirstDecode >= 0) _timeToFirstDecode.record(timeToFirstDecode);
+        Listener listener = _listener;
+        if (listener != null) listener.onResult(result.getBarcodeFormat(), cameraToResultMs, timeToFirstDecode);
+    }
+
+    void onSessionStart(long now) {
+        _sessionStart.set(now);
+    }
+
+}
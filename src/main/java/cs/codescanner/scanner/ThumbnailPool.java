@@ -0,0 +1,39 @@
+package cs.codescanner.scanner;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a few result thumbnails around once their consumer is done with them,
+ * so the next result of the same size and format reuses the bitmap instead of
+ * allocating a new one.
+ */
+final class ThumbnailPool {
+
+    private static final int MAX_IDLE = 2;
+
+    private final List<Bitmap> _idle = new ArrayList<Bitmap>(MAX_IDLE);
+
+    synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        for (int i = _idle.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = _idle.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && bitmap.getConfig() == config) return _idle.remove(i);
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || _idle.contains(bitmap)) return;
+        if (_idle.size() == MAX_IDLE) _idle.remove(0).recycle();
+        _idle.add(bitmap);
+    }
+
+    synchronized void clear() {
+        for (Bitmap bitmap : _idle) bitmap.recycle();
+        _idle.clear();
+    }
+
+}
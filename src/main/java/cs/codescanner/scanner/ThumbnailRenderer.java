@@ -0,0 +1,46 @@
+package cs.codescanner.scanner;
+
+import android.graphics.Bitmap;
+
+import cs.codescanner.scanner.decode.FrameLuminanceSource;
+import cs.codescanner.scanner.decode.GreyscalePixels;
+
+/**
+ * Renders the greyscale thumbnail of a decoded frame into a pooled bitmap. The
+ * thumbnail can be downsampled and use {@link Bitmap.Config#ALPHA_8}, in which
+ * case the grey level is stored as the alpha of each pixel. Rows are read
+ * through the source, so any crop, rotation or mirroring it applies shows in
+ * the thumbnail. Each decode thread owns its renderer.
+ */
+final class ThumbnailRenderer {
+
+    private final ThumbnailPool _pool;
+    private final Bitmap.Config _config;
+    private final int _sampleSize;
+    private byte[] _luminance;
+    private int[] _pixels;
+
+    ThumbnailRenderer(ThumbnailPool pool, Bitmap.Config config, int sampleSize) {
+        _pool = pool;
+        _config = config;
+        _sampleSize = Math.max(1, sampleSize);
+    }
+
+    Bitmap render(FrameLuminanceSource source) {
+        FrameLuminanceSource view = source.downsample(_sampleSize);
+        int width = Math.max(1, view.getWidth());
+        int height = Math.max(1, view.getHeight());
+        if (_pixels == null || _pixels.length < width) {
+            _pixels = new int[width];
+            _luminance = new byte[width];
+        }
+        boolean alphaOnly = _config == Bitmap.Config.ALPHA_8;
+        Bitmap bitmap = _pool.acquire(width, height, _config);
+        for (int y = 0; y < view.getHeight(); y++) {
+            GreyscalePixels.toPixels(view.getRow(y, _luminance), _pixels, width, alphaOnly);
+            bitmap.setPixels(_pixels, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+
+}
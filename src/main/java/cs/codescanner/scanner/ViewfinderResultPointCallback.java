@@ -6,13 +6,18 @@ import com.google.zxing.ResultPointCallback;
 final class ViewfinderResultPointCallback implements ResultPointCallback {
 
 	private final ViewfinderView viewfinderView;
+	private final CaptureActivityHandler handler;
 
-	ViewfinderResultPointCallback(ViewfinderView viewfinderView) {
+	ViewfinderResultPointCallback(ViewfinderView viewfinderView, CaptureActivityHandler handler) {
 		this.viewfinderView = viewfinderView;
+		this.handler = handler;
 	}
 
 	 public void foundPossibleResultPoint(ResultPoint point) {
 		viewfinderView.addPossibleResultPoint(point);
+		// A candidate in view brings a throttled scanner back to full rate and
+		// holds off the inactivity finish
+		handler.onCandidate();
 	}
 
 }
@@ -16,7 +16,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import cs.codescanner.R;
-import cs.codescanner.scanner.camera.CameraManager;
+import cs.codescanner.scanner.camera.CameraBackend;
 
 import static cs.java.lang.CSLang.no;
 
@@ -28,7 +28,7 @@ public final class ViewfinderView extends View {
     private static final int MAX_RESULT_POINTS = 20;
     private static final int POINT_SIZE = 6;
 
-    private CameraManager cameraManager;
+    private CameraBackend cameraManager;
     private final Paint paint;
     private Bitmap resultBitmap;
     private final int maskColor;
@@ -165,7 +165,7 @@ public final class ViewfinderView extends View {
         }
     }
 
-    public void setCameraManager(CameraManager cameraManager) {
+    public void setCameraManager(CameraBackend cameraManager) {
         this.cameraManager = cameraManager;
     }
 
@@ -4,14 +4,28 @@ import static cs.java.lang.CSLang.info;
 import android.hardware.Camera;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
+
+import cs.codescanner.scanner.ScannerMetrics;
 
 final class AutoFocusCallback implements Camera.AutoFocusCallback {
 
-	private static final long AUTOFOCUS_INTERVAL_MS = 1500L;
+	static final long AUTOFOCUS_INTERVAL_MS = 1500L;
+	private final ScannerMetrics metrics;
+	private final FocusState focusState;
 	private Handler autoFocusHandler;
 	private int autoFocusMessage;
+	private long requestedAt;
+
+	AutoFocusCallback(ScannerMetrics metrics, FocusState focusState) {
+		this.metrics = metrics;
+		this.focusState = focusState;
+	}
 
 	public void onAutoFocus(boolean success, Camera camera) {
+		if (requestedAt > 0) metrics.onAutoFocus(success, SystemClock.uptimeMillis() - requestedAt);
+		requestedAt = 0;
+		focusState.onSweepEnd();
 		if (autoFocusHandler != null) {
 			Message message = autoFocusHandler.obtainMessage(autoFocusMessage, success);
 			autoFocusHandler.sendMessageDelayed(message, AUTOFOCUS_INTERVAL_MS);
@@ -22,6 +36,8 @@ final class AutoFocusCallback implements Camera.AutoFocusCallback {
 	void setHandler(Handler autoFocusHandler, int autoFocusMessage) {
 		this.autoFocusHandler = autoFocusHandler;
 		this.autoFocusMessage = autoFocusMessage;
+		requestedAt = autoFocusHandler == null ? 0 : SystemClock.uptimeMillis();
+		if (autoFocusHandler != null) focusState.onSweepStart(requestedAt);
 	}
 
 }
@@ -0,0 +1,506 @@
+package cs.codescanner.scanner.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cs.codescanner.scanner.CaptureMainController;
+import cs.codescanner.scanner.ScannerMetrics;
+import cs.codescanner.scanner.decode.ByteBufferLuminanceSource;
+import cs.codescanner.scanner.decode.FrameLuminanceSource;
+import cs.codescanner.scanner.decode.FrameRecorder;
+import cs.codescanner.scanner.decode.LuminanceBufferPool;
+import cs.codescanner.scanner.decode.RotatedYUVLuminanceSource;
+
+/**
+ * A {@link CameraBackend} on the camera2 API. The preview goes to the surface
+ * and, in YUV_420_888, to an {@link ImageReader} whose images are handed to
+ * the decoder as frames. The reader holds one image per frame the decoder may
+ * have out plus one, and always yields the newest image, so a slow decoder
+ * skips frames instead of working through a backlog. Frames are decoded
+ * straight from the Y plane buffer with its strides, mirrored while read,
+ * unless they need turning, which takes a packed copy.
+ *
+ * Camera callbacks and images arrive on a thread of the backend's own. Focus
+ * is continuous where the camera supports it; the focus state of each capture
+ * result drives the same frame gating as with {@link CameraManager}.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class Camera2Manager implements CameraBackend {
+
+    private static final String TAG = Camera2Manager.class.getSimpleName();
+
+    private static final long OPEN_TIMEOUT_MS = 2500L;
+    private static final int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
+
+    /**
+     * @return true if the device has a back camera which camera2 drives on its
+     *         own rather than through the legacy layer over the original API.
+     */
+    public static boolean isSupported(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return false;
+        android.hardware.camera2.CameraManager service = (android.hardware.camera2.CameraManager)
+                context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String id = backCameraId(service);
+            if (id == null) return false;
+            Integer level = service.getCameraCharacteristics(id).get(
+                    CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            return level != null && level != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        } catch (CameraAccessException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static String backCameraId(android.hardware.camera2.CameraManager service)
+            throws CameraAccessException {
+        for (String id : service.getCameraIdList()) {
+            Integer facing = service.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) return id;
+        }
+        return null;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        if (values != null) for (int candidate : values)
+            if (candidate == value) return true;
+        return false;
+    }
+
+    private final ImageReader.OnImageAvailableListener _imageListener = new ImageReader.OnImageAvailableListener() {
+        @Override public void onImageAvailable(ImageReader reader) {
+            onImage(reader);
+        }
+    };
+
+    private final CameraCaptureSession.CaptureCallback _captureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                                 TotalCaptureResult result) {
+            Integer state = result.get(CaptureResult.CONTROL_AF_STATE);
+            if (state != null) onFocusState(state, SystemClock.uptimeMillis());
+        }
+    };
+
+    /**
+     * Packed copies of the Y plane for frames that need turning, one per decode
+     * thread.
+     */
+    private final ThreadLocal<byte[]> _packedPlanes = new ThreadLocal<byte[]>();
+    private final android.hardware.camera2.CameraManager _service;
+    private final ScannerMetrics _metrics;
+    private final CameraConfigurationManager _configManager;
+    private final FramingRects _framingRects;
+    private final FocusState _focusState = new FocusState();
+    private final FrameGate _frameGate = new FrameGate(_focusState);
+    private final boolean _continuousFocusWanted;
+    private HandlerThread _thread;
+    private Handler _cameraHandler;
+    private CameraDevice _device;
+    private CameraCharacteristics _characteristics;
+    private Surface _previewSurface;
+    private ImageReader _reader;
+    /**
+     * A reader stopped while the decoder still had images of it, closed once
+     * they are all back.
+     */
+    private ImageReader _retiredReader;
+    /**
+     * Images out with the decoder, of the current and of the retired reader.
+     * An image in neither belongs to a reader closed with the camera.
+     */
+    private final Set<Image> _outstandingImages = new HashSet<Image>();
+    private final Set<Image> _retiredImages = new HashSet<Image>();
+    private CameraCaptureSession _session;
+    private CaptureRequest.Builder _request;
+    private int _previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+    private boolean _continuousFocus;
+    private boolean _torch;
+    private Handler _autoFocusHandler;
+    private int _autoFocusMessage;
+    private volatile boolean _scanSeen;
+    private volatile boolean _reverseImage;
+    private volatile FrameRecorder _recorder;
+    private volatile Handler _frameHandler;
+    private volatile int _frameMessage;
+
+    public Camera2Manager(CaptureMainController controller) {
+        _service = controller.service(Context.CAMERA_SERVICE, android.hardware.camera2.CameraManager.class);
+        _metrics = controller.metrics();
+        _configManager = new CameraConfigurationManager(controller);
+        _framingRects = new FramingRects(_configManager);
+        _continuousFocusWanted = controller.isContinuousFocus();
+    }
+
+    @Override public FrameLuminanceSource buildLuminanceSource(Object frame, int width, int height, Rect rect) {
+        if (rect == null) return null;
+        Image.Plane plane = ((Image) frame).getPlanes()[0];
+        int rotation = _configManager.getRotation();
+        if (rotation == 0) return new ByteBufferLuminanceSource(plane.getBuffer(), plane.getRowStride(),
+                plane.getPixelStride(), width, height, rect.left, rect.top, rect.width(), rect.height(),
+                _reverseImage, LuminanceBufferPool.get());
+        return new RotatedYUVLuminanceSource(packedPlane(plane, width, height), width, height, rotation,
+                rect.left, rect.top, rect.width(), rect.height(), _reverseImage, LuminanceBufferPool.get());
+    }
+
+    @Override public synchronized void closeDriver() {
+        stopPreview();
+        // Whatever the decoder did not give back is lost with the camera
+        if (_retiredReader != null) {
+            _retiredReader.close();
+            _retiredReader = null;
+            _retiredImages.clear();
+        }
+        if (_device != null) {
+            _device.close();
+            _device = null;
+            _framingRects.clear();
+        }
+        if (_thread != null) {
+            _thread.quit();
+            _thread = null;
+            _cameraHandler = null;
+        }
+    }
+
+    @Override public Rect getFramingRect() {
+        return _device == null ? null : _framingRects.getFramingRect();
+    }
+
+    @Override public Rect getFramingRectInPreview() {
+        return _device == null ? null : _framingRects.getFramingRectInPreview();
+    }
+
+    @Override public synchronized void configure() {
+        if (_device == null || _framingRects.isConfigured()) return;
+        _configManager.initFromCharacteristics(_characteristics);
+        _framingRects.onConfigured();
+    }
+
+    /**
+     * Opens the back camera, waiting for it on the calling thread.
+     */
+    @Override public synchronized void open() throws IOException {
+        if (_device != null) return;
+        _thread = new HandlerThread("Camera2");
+        _thread.start();
+        _cameraHandler = new Handler(_thread.getLooper());
+        try {
+            String id = backCameraId(_service);
+            if (id == null) throw new IOException("No back camera");
+            _characteristics = _service.getCameraCharacteristics(id);
+            _device = open(id);
+        } catch (CameraAccessException e) {
+            throw new IOException(e);
+        } finally {
+            if (_device == null) closeDriver();
+        }
+    }
+
+    @Override public synchronized void openDriver(SurfaceHolder holder) throws IOException {
+        open();
+        configure();
+        // A surface view takes camera2 output at one of the sizes it supports
+        Point resolution = _configManager.getCameraResolution();
+        holder.setFixedSize(resolution.x, resolution.y);
+        _previewSurface = holder.getSurface();
+    }
+
+    @Override public void releasePreviewBuffer(Object frame) {
+        ((Image) frame).close();
+        synchronized (this) {
+            if (_outstandingImages.remove(frame)) return;
+            if (_retiredImages.remove(frame) && _retiredImages.isEmpty() && _retiredReader != null) {
+                _retiredReader.close();
+                _retiredReader = null;
+            }
+        }
+    }
+
+    @Override public synchronized void requestAutoFocus(Handler handler, int message) {
+        if (_device == null || _continuousFocus) return;
+        _autoFocusHandler = handler;
+        _autoFocusMessage = message;
+        // Until the session is configured, which then triggers it
+        if (_session != null) triggerAutoFocus();
+    }
+
+    @Override public void requestPreviewFrames(Handler handler, int message) {
+        _frameMessage = message;
+        _frameHandler = handler;
+    }
+
+    @Override public void setFrameInterval(long intervalMs) {
+        _frameGate.setMinFrameInterval(intervalMs);
+    }
+
+    @Override public void setFrameRecorder(FrameRecorder recorder) {
+        _recorder = recorder;
+    }
+
+    @Override public void setManualFramingRect(int width, int height) {
+        _framingRects.setManualFramingRect(width, height);
+    }
+
+    /**
+     * The reader holds this many images plus one.
+     */
+    @Override public void setPreviewBufferCount(int count) {
+        _previewBufferCount = Math.max(1, count);
+    }
+
+    @Override public void setReverseImage(boolean reverseImage) {
+        _reverseImage = reverseImage;
+    }
+
+    @Override public synchronized void setTorch(boolean on) {
+        _torch = on;
+        if (_request == null) return;
+        _request.set(CaptureRequest.FLASH_MODE, on ? CaptureRequest.FLASH_MODE_TORCH
+                : CaptureRequest.FLASH_MODE_OFF);
+        repeat();
+    }
+
+    @Override public synchronized void startPreview() {
+        if (_device == null || _reader != null) return;
+        Point resolution = _configManager.getCameraResolution();
+        final ImageReader reader = ImageReader.newInstance(resolution.x, resolution.y,
+                ImageFormat.YUV_420_888, _previewBufferCount + 1);
+        reader.setOnImageAvailableListener(_imageListener, _cameraHandler);
+        _reader = reader;
+        _focusState.reset();
+        try {
+            _request = _device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            _request.addTarget(_previewSurface);
+            _request.addTarget(reader.getSurface());
+            configureFocus();
+            _request.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+            _request.set(CaptureRequest.FLASH_MODE, _torch ? CaptureRequest.FLASH_MODE_TORCH
+                    : CaptureRequest.FLASH_MODE_OFF);
+            _device.createCaptureSession(Arrays.asList(_previewSurface, reader.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override public void onConfigured(CameraCaptureSession session) {
+                            onSessionConfigured(reader, session);
+                        }
+
+                        @Override public void onConfigureFailed(CameraCaptureSession session) {
+                            Log.w(TAG, "Could not configure the capture session");
+                        }
+                    }, _cameraHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "Could not start the preview", e);
+        }
+    }
+
+    @Override public synchronized void stopPreview() {
+        if (_reader == null) return;
+        if (_session != null) {
+            _session.close();
+            _session = null;
+        }
+        _frameHandler = null;
+        _autoFocusHandler = null;
+        _request = null;
+        _reader.setOnImageAvailableListener(null, null);
+        if (_outstandingImages.isEmpty()) _reader.close();
+        else {
+            if (_retiredReader != null) _retiredReader.close();
+            _retiredReader = _reader;
+            _retiredImages.clear();
+            _retiredImages.addAll(_outstandingImages);
+            _outstandingImages.clear();
+        }
+        _reader = null;
+        _focusState.reset();
+    }
+
+    @Override public void stopPreviewFrames() {
+        _frameHandler = null;
+    }
+
+    private void configureFocus() {
+        int[] modes = _characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        int mode = CaptureRequest.CONTROL_AF_MODE_OFF;
+        if (_continuousFocusWanted && contains(modes, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE))
+            mode = CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
+        else if (_continuousFocusWanted && contains(modes, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO))
+            mode = CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO;
+        else if (contains(modes, CaptureRequest.CONTROL_AF_MODE_AUTO))
+            mode = CaptureRequest.CONTROL_AF_MODE_AUTO;
+        // Without a moving lens there is nothing to request either
+        _continuousFocus = mode != CaptureRequest.CONTROL_AF_MODE_AUTO;
+        _request.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+        _request.set(CaptureRequest.CONTROL_AF_MODE, mode);
+    }
+
+    private void onFocusState(int state, long now) {
+        boolean scanning = state == CaptureResult.CONTROL_AF_STATE_PASSIVE_SCAN
+                || state == CaptureResult.CONTROL_AF_STATE_ACTIVE_SCAN;
+        if (scanning) {
+            _scanSeen = true;
+            if (_focusState.getSweepStartedAt() < 0) _focusState.onSweepStart(now);
+            return;
+        }
+        long startedAt = _focusState.getSweepStartedAt();
+        if (startedAt < 0) return;
+        // Right after a trigger results still show the state from before it
+        if (!_scanSeen && _focusState.isSweeping(now)) return;
+        _scanSeen = false;
+        _focusState.onSweepEnd();
+        boolean success = state == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED
+                || state == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED;
+        _metrics.onAutoFocus(success, now - startedAt);
+        Handler handler;
+        int message;
+        synchronized (this) {
+            handler = _autoFocusHandler;
+            message = _autoFocusMessage;
+            _autoFocusHandler = null;
+        }
+        if (handler != null) handler.sendMessageDelayed(handler.obtainMessage(message, success),
+                AutoFocusCallback.AUTOFOCUS_INTERVAL_MS);
+    }
+
+    private void onImage(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            // Every image is out with the decoder, the newest waits in the reader
+            return;
+        }
+        if (image == null) return;
+        _metrics.onFrameDelivered();
+        FrameRecorder recorder = _recorder;
+        if (recorder != null) {
+            Rect rect = getFramingRectInPreview();
+            Image.Plane plane = image.getPlanes()[0];
+            if (rect != null) recorder.record(plane.getBuffer(), plane.getRowStride(), image.getWidth(),
+                    image.getHeight(), rect.left, rect.top, rect.right, rect.bottom, _configManager.getRotation(),
+                    _reverseImage);
+        }
+        Handler handler = _frameHandler;
+        if (handler != null && !_frameGate.accept()) handler = null;
+        if (handler == null) {
+            _metrics.onFrameDropped();
+            image.close();
+            return;
+        }
+        synchronized (this) {
+            // Acquired while the preview stopped, the reader is no longer ours
+            if (reader != _reader) {
+                _metrics.onFrameDropped();
+                image.close();
+                return;
+            }
+            _outstandingImages.add(image);
+        }
+        handler.obtainMessage(_frameMessage, image.getWidth(), image.getHeight(), image).sendToTarget();
+    }
+
+    private synchronized void onSessionConfigured(ImageReader reader, CameraCaptureSession session) {
+        if (reader != _reader) {
+            // Stopped while configuring
+            session.close();
+            return;
+        }
+        _session = session;
+        repeat();
+        if (_autoFocusHandler != null) triggerAutoFocus();
+    }
+
+    private CameraDevice open(String id) throws CameraAccessException, IOException {
+        final CameraDevice[] opened = new CameraDevice[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        _service.openCamera(id, new CameraDevice.StateCallback() {
+            @Override public void onOpened(CameraDevice camera) {
+                if (abandoned.get()) camera.close();
+                else opened[0] = camera;
+                done.countDown();
+            }
+
+            @Override public void onDisconnected(CameraDevice camera) {
+                camera.close();
+                done.countDown();
+            }
+
+            @Override public void onError(CameraDevice camera, int error) {
+                Log.w(TAG, "Camera error " + error);
+                camera.close();
+                done.countDown();
+            }
+        }, _cameraHandler);
+        try {
+            if (!done.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) abandoned.set(true);
+        } catch (InterruptedException e) {
+            abandoned.set(true);
+            Thread.currentThread().interrupt();
+        }
+        if (opened[0] == null) throw new IOException("Could not open camera " + id);
+        return opened[0];
+    }
+
+    private byte[] packedPlane(Image.Plane plane, int width, int height) {
+        byte[] data = _packedPlanes.get();
+        if (data == null || data.length < width * height) _packedPlanes.set(data = new byte[width * height]);
+        ByteBuffer rows = plane.getBuffer().duplicate();
+        int rowStride = plane.getRowStride();
+        for (int y = 0; y < height; y++) {
+            rows.position(y * rowStride);
+            rows.get(data, y * width, width);
+        }
+        return data;
+    }
+
+    private void repeat() {
+        if (_session == null) return;
+        try {
+            _session.setRepeatingRequest(_request.build(), _captureCallback, _cameraHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "Could not update the preview", e);
+        }
+    }
+
+    private void triggerAutoFocus() {
+        _scanSeen = false;
+        _focusState.onSweepStart(SystemClock.uptimeMillis());
+        try {
+            _request.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
+            _session.capture(_request.build(), _captureCallback, _cameraHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "Unexpected exception while focusing", e);
+            _autoFocusHandler = null;
+            _focusState.reset();
+        } finally {
+            _request.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+        }
+    }
+
+}
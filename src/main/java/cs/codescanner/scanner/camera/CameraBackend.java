@@ -0,0 +1,145 @@
+package cs.codescanner.scanner.camera;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+import cs.codescanner.scanner.decode.FrameLuminanceSource;
+import cs.codescanner.scanner.decode.FrameRecorder;
+
+/**
+ * What the scanner needs from a camera: a preview drawn to a surface, frames
+ * streamed to a handler and turned into luminance sources, autofocus, the
+ * framing rect and the torch. {@link CameraManager} implements it on the
+ * original camera API and is the default, {@link Camera2Manager} on camera2.
+ *
+ * Frames arrive as R.id.decode style messages with the frame in message.obj
+ * and its width and height in message.arg1 and message.arg2. The frame is an
+ * opaque object of the backend, to be turned into a source with
+ * {@link #buildLuminanceSource} and handed back with
+ * {@link #releasePreviewBuffer} once done with.
+ */
+public interface CameraBackend {
+
+    /**
+     * Builds a source over the frame cropped to rect, in preview coordinates,
+     * turned upright and mirrored as configured. The source may use the
+     * {@link cs.codescanner.scanner.decode.LuminanceBufferPool} of the calling
+     * thread.
+     *
+     * @return null if rect is null.
+     */
+    FrameLuminanceSource buildLuminanceSource(Object frame, int width, int height, Rect rect);
+
+    /**
+     * Closes the camera driver if still in use.
+     */
+    void closeDriver();
+
+    /**
+     * Calculates the framing rect which the UI should draw to show the user
+     * where to place the barcode.
+     *
+     * @return The rectangle to draw on screen in window coordinates, null
+     *         before the camera is open.
+     */
+    Rect getFramingRect();
+
+    /**
+     * Like {@link #getFramingRect} but coordinates are in terms of the preview
+     * frame, not UI / screen.
+     */
+    Rect getFramingRectInPreview();
+
+    /**
+     * Reads what the camera supports and applies the scanner's parameters,
+     * the preview size among them. Needs no surface, so it may run on any
+     * thread after {@link #open}.
+     */
+    void configure();
+
+    /**
+     * Opens the camera driver, the slow part of starting the camera. Needs no
+     * surface, so it may run on any thread while the surface is being created.
+     *
+     * @throws IOException Indicates the camera driver failed to open.
+     */
+    void open() throws IOException;
+
+    /**
+     * Points the preview at the surface, opening and configuring the camera
+     * first unless done already.
+     *
+     * @param holder The surface the camera draws the preview into.
+     * @throws IOException Indicates the camera driver failed to open.
+     */
+    void openDriver(SurfaceHolder holder) throws IOException;
+
+    /**
+     * Gives a frame received through {@link #requestPreviewFrames} back to the
+     * camera once it is no longer needed.
+     */
+    void releasePreviewBuffer(Object frame);
+
+    /**
+     * Asks the camera to focus, the message is sent to the handler a while
+     * after it is done. Does nothing in a continuous focus mode.
+     */
+    void requestAutoFocus(Handler handler, int message);
+
+    /**
+     * Delivers every preview frame to the handler until
+     * {@link #stopPreviewFrames} or {@link #stopPreview} is called.
+     */
+    void requestPreviewFrames(Handler handler, int message);
+
+    /**
+     * @param intervalMs Shortest time between two delivered frames, 0 for
+     *                   every frame.
+     */
+    void setFrameInterval(long intervalMs);
+
+    /**
+     * Records every preview frame delivered from now on, null to stop. The
+     * caller closes the recorder.
+     */
+    void setFrameRecorder(FrameRecorder recorder);
+
+    /**
+     * Allows third party apps to specify the scanning rectangle dimensions,
+     * rather than determine them automatically based on screen resolution.
+     */
+    void setManualFramingRect(int width, int height);
+
+    /**
+     * Sets how many frames may be out with the decoder at a time. Takes effect
+     * on the next {@link #startPreview}.
+     */
+    void setPreviewBufferCount(int count);
+
+    /**
+     * Mirrors frames horizontally before decoding, for codes seen through a
+     * mirror or printed reversed.
+     */
+    void setReverseImage(boolean reverseImage);
+
+    void setTorch(boolean on);
+
+    /**
+     * Asks the camera hardware to begin drawing preview frames to the screen.
+     */
+    void startPreview();
+
+    /**
+     * Tells the camera to stop drawing preview frames.
+     */
+    void stopPreview();
+
+    /**
+     * Stops the delivery started by {@link #requestPreviewFrames}.
+     */
+    void stopPreviewFrames();
+
+}
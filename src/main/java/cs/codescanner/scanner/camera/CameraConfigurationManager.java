@@ -1,11 +1,21 @@
 package cs.codescanner.scanner.camera;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.hardware.Camera;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Size;
+import android.view.Display;
+import android.view.Surface;
 import android.view.WindowManager;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import cs.codescanner.scanner.CaptureMainController;
 
@@ -18,9 +28,6 @@ import static cs.java.lang.CSLang.warn;
  */
 final class CameraConfigurationManager {
 
-    private static final int MIN_PREVIEW_PIXELS = 320 * 240; // small screen
-    private static final int MAX_PREVIEW_PIXELS = 800 * 480; // large/HD screen
-
     private static void doSetTorch(Camera.Parameters parameters, boolean newSetting) {
         String flashMode;
         if (newSetting) flashMode = findSettableValue(parameters.getSupportedFlashModes(),
@@ -30,31 +37,38 @@ final class CameraConfigurationManager {
         if (flashMode != null) parameters.setFlashMode(flashMode);
     }
 
-    private static Point findBestPreviewSizeValue(Camera.Parameters parameters,
-                                                  Point screenResolution, boolean portrait) {
+    /**
+     * @return The supported size closest to the screen aspect ratio with more
+     *         than minPixels and at most maxPixels, else the largest one up to
+     *         maxPixels, else the default one.
+     */
+    private static Point findBestPreviewSizeValue(List<Point> supportedSizes, Point defaultSize,
+                                                  Point screenResolution, boolean portrait,
+                                                  int minPixels, int maxPixels) {
         Point bestSize = null;
         int diff = Integer.MAX_VALUE;
-        for (Camera.Size supportedPreviewSize : parameters.getSupportedPreviewSizes()) {
-            int pixels = supportedPreviewSize.height * supportedPreviewSize.width;
-            if (pixels < MIN_PREVIEW_PIXELS || pixels > MAX_PREVIEW_PIXELS) continue;
-            int supportedWidth = portrait ? supportedPreviewSize.height : supportedPreviewSize.width;
-            int supportedHeight = portrait ? supportedPreviewSize.width : supportedPreviewSize.height;
+        Point largest = null;
+        for (Point supportedPreviewSize : supportedSizes) {
+            int pixels = supportedPreviewSize.x * supportedPreviewSize.y;
+            if (pixels > maxPixels) continue;
+            if (largest == null || pixels > largest.x * largest.y) largest = supportedPreviewSize;
+            if (pixels <= minPixels) continue;
+            int supportedWidth = portrait ? supportedPreviewSize.y : supportedPreviewSize.x;
+            int supportedHeight = portrait ? supportedPreviewSize.x : supportedPreviewSize.y;
             int newDiff = Math.abs(screenResolution.x * supportedHeight - supportedWidth
                     * screenResolution.y);
             if (newDiff == 0) {
-                bestSize = new Point(supportedWidth, supportedHeight);
+                bestSize = supportedPreviewSize;
                 break;
             }
             if (newDiff < diff) {
-                bestSize = new Point(supportedWidth, supportedHeight);
+                bestSize = supportedPreviewSize;
                 diff = newDiff;
             }
         }
-        if (bestSize == null) {
-            Camera.Size defaultSize = parameters.getPreviewSize();
-            bestSize = new Point(defaultSize.width, defaultSize.height);
-        }
-        return bestSize;
+        if (bestSize == null) bestSize = largest;
+        if (bestSize == null) bestSize = defaultSize;
+        return new Point(bestSize.x, bestSize.y);
     }
 
     private static String findSettableValue(Collection<String> supportedValues,
@@ -70,34 +84,139 @@ final class CameraConfigurationManager {
         return result;
     }
 
+    private static List<Point> previewSizes(Camera.Parameters parameters) {
+        List<Point> sizes = new ArrayList<Point>();
+        for (Camera.Size size : parameters.getSupportedPreviewSizes())
+            sizes.add(new Point(size.width, size.height));
+        return sizes;
+    }
+
+    private static Point previewSize(Camera.Parameters parameters) {
+        Camera.Size size = parameters.getPreviewSize();
+        return new Point(size.width, size.height);
+    }
+
+    private static int displayDegrees(int rotation) {
+        switch (rotation) {
+            case Surface.ROTATION_90:
+                return 90;
+            case Surface.ROTATION_180:
+                return 180;
+            case Surface.ROTATION_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
     private final CaptureMainController _controller;
-    private Point _screenResolution;
+    private final Point _screenResolution;
+    private final int _displayDegrees;
     private Point _cameraResolution;
+    private Point _rotatedCameraResolution;
+    private int _rotation;
+    private int _displayOrientation;
+    private volatile boolean _continuousFocus;
 
+    /**
+     * Reads the screen on the calling thread, the main one, so the camera can
+     * be configured on another.
+     */
     CameraConfigurationManager(CaptureMainController controller) {
         _controller = controller;
+        Display display = controller.service(Context.WINDOW_SERVICE, WindowManager.class).
+                getDefaultDisplay();
+        Point size = new Point();
+        display.getSize(size);
+        _screenResolution = new Point(size.x, size.y - controller.getStatusBarHeight()
+                - controller.getActionBarHeight());
+        info("Screen resolution: " + _screenResolution);
+        _displayDegrees = displayDegrees(display.getRotation());
+    }
+
+    private void choosePreviewSize(List<Point> supportedSizes, Point defaultSize) {
+        PreviewSizePolicy policy = _controller.previewSizePolicy();
+        boolean sideways = _rotation == 90 || _rotation == 270;
+        _cameraResolution = findBestPreviewSizeValue(supportedSizes, defaultSize, _screenResolution,
+                sideways, policy.getMinPreviewPixels(), policy.getMaxPreviewPixels());
+        _rotatedCameraResolution = sideways ? new Point(_cameraResolution.y, _cameraResolution.x)
+                : _cameraResolution;
+        info("Camera resolution: " + _cameraResolution + " (tier " + policy.getTier() + ")");
     }
 
     Point getCameraResolution() {
         return _cameraResolution;
     }
 
+    /**
+     * @return The preview size as seen on screen, width and height of
+     *         {@link #getCameraResolution} swapped when the frame is rotated
+     *         sideways.
+     */
+    Point getRotatedCameraResolution() {
+        return _rotatedCameraResolution;
+    }
+
+    /**
+     * @return Clockwise rotation in degrees that turns a preview frame upright
+     *         on the current display.
+     */
+    int getRotation() {
+        return _rotation;
+    }
+
     Point getScreenResolution() {
         return _screenResolution;
     }
 
+    /**
+     * @return true if the camera was set to a continuous focus mode, which
+     *         needs no autofocus requests.
+     */
+    boolean isContinuousFocus() {
+        return _continuousFocus;
+    }
+
     /**
      * Reads, one time, values from the camera that are needed by the app.
      */
-    void initFromCameraParameters(Camera camera) {
-        _controller.service(Context.WINDOW_SERVICE, WindowManager.class).
-                getDefaultDisplay().getSize(_screenResolution = new Point());
-        _screenResolution = new Point(_screenResolution.x, _screenResolution.y -
-                _controller.getStatusBarHeight() - _controller.getActionBarHeight());
-        info("Screen resolution: " + _screenResolution);
+    void initFromCameraParameters(Camera camera, int cameraId) {
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        Camera.getCameraInfo(cameraId, cameraInfo);
+        initOrientation(cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT, cameraInfo.orientation);
+        Camera.Parameters parameters = camera.getParameters();
+        choosePreviewSize(previewSizes(parameters), previewSize(parameters));
+    }
 
-        _cameraResolution = findBestPreviewSizeValue(camera.getParameters(), _screenResolution, false);
-        info("Camera resolution: " + _cameraResolution);
+    /**
+     * Like {@link #initFromCameraParameters} for a camera2 device, choosing
+     * among its YUV_420_888 output sizes.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    void initFromCharacteristics(CameraCharacteristics characteristics) {
+        Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        initOrientation(facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT,
+                orientation == null ? 0 : orientation);
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        List<Point> sizes = new ArrayList<Point>();
+        if (map != null) for (Size size : map.getOutputSizes(ImageFormat.YUV_420_888))
+            sizes.add(new Point(size.getWidth(), size.getHeight()));
+        // Every camera2 device streams YUV at 640x480
+        choosePreviewSize(sizes, new Point(640, 480));
+    }
+
+    private void initOrientation(boolean front, int sensorOrientation) {
+        int degrees = _displayDegrees;
+        if (front) {
+            _rotation = (sensorOrientation + degrees) % 360;
+            // The front preview is mirrored on screen, so the display turns the other way.
+            _displayOrientation = (360 - _rotation) % 360;
+        } else {
+            _rotation = (sensorOrientation - degrees + 360) % 360;
+            _displayOrientation = _rotation;
+        }
+        info("Frame rotation: " + _rotation);
     }
 
     void setDesiredCameraParameters(Camera camera) {
@@ -107,12 +226,21 @@ final class CameraConfigurationManager {
             return;
         }
         doSetTorch(parameters, false);
-        String focusMode = findSettableValue(parameters.getSupportedFocusModes(),
+        String focusMode = null;
+        if (_controller.isContinuousFocus())
+            focusMode = findSettableValue(parameters.getSupportedFocusModes(),
+                    Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE,
+                    Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+        _continuousFocus = focusMode != null;
+        if (focusMode == null) focusMode = findSettableValue(parameters.getSupportedFocusModes(),
                 Camera.Parameters.FOCUS_MODE_AUTO, Camera.Parameters.FOCUS_MODE_MACRO);
         if (focusMode != null) parameters.setFocusMode(focusMode);
 
+        // The policy may have moved to another tier since the size was chosen
+        choosePreviewSize(previewSizes(parameters), previewSize(parameters));
         parameters.setPreviewSize(_cameraResolution.x, _cameraResolution.y);
         camera.setParameters(parameters);
+        camera.setDisplayOrientation(_displayOrientation);
     }
 
     void setTorch(Camera camera, boolean newSetting) {
@@ -1,6 +1,5 @@
 package cs.codescanner.scanner.camera;
 
-import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Build;
@@ -11,7 +10,11 @@ import android.view.SurfaceHolder;
 import java.io.IOException;
 
 import cs.codescanner.scanner.CaptureMainController;
-import cs.codescanner.scanner.PlanarYUVLuminanceSource;
+import cs.codescanner.scanner.decode.FrameLuminanceSource;
+import cs.codescanner.scanner.decode.FrameRecorder;
+import cs.codescanner.scanner.decode.LuminanceBufferPool;
+import cs.codescanner.scanner.decode.PlanarYUVLuminanceSource;
+import cs.codescanner.scanner.decode.RotatedYUVLuminanceSource;
 
 /**
  * This object wraps the Camera service object and expects to be the only one
@@ -20,14 +23,12 @@ import cs.codescanner.scanner.PlanarYUVLuminanceSource;
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
-public final class CameraManager {
+public final class CameraManager implements CameraBackend {
 
     private static final String TAG = CameraManager.class.getSimpleName();
 
-    private static final int MIN_FRAME_WIDTH = 240;
-    private static final int MIN_FRAME_HEIGHT = 240;
-    private static final int MAX_FRAME_WIDTH = 700;
-    private static final int MAX_FRAME_HEIGHT = 400;
+    private static final int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
+    private static final int CAMERA_ID = 0;
 
     private final CameraConfigurationManager _configManager;
     /**
@@ -41,50 +42,75 @@ public final class CameraManager {
      * requested them.
      */
     private final AutoFocusCallback autoFocusCallback;
+    /**
+     * Lens movement seen by the focus callbacks, frames taken during a sweep
+     * are not decoded.
+     */
+    private final FocusState _focusState = new FocusState();
+    private final FrameGate _frameGate = new FrameGate(_focusState);
+    private final CaptureMainController _controller;
+    /**
+     * Preallocated preview buffers, null when frames are requested with one-shot
+     * callbacks.
+     */
+    private PreviewBufferRing _bufferRing;
+    private int _previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+    private final FramingRects _framingRects;
     private Camera _camera;
-    private Rect _framingRect;
-    private Rect _framingRectInPreview;
-    private boolean _initialized;
     private boolean _previewing;
-    private boolean _reverseImage;
-    private int _requestedFramingRectWidth;
-    private int _requestedFramingRectHeight;
+    private volatile boolean _reverseImage;
 
     public CameraManager(CaptureMainController controller) {
+        _controller = controller;
         _configManager = new CameraConfigurationManager(controller);
-        previewCallback = new PreviewCallback(_configManager);
-        autoFocusCallback = new AutoFocusCallback();
+        _framingRects = new FramingRects(_configManager);
+        previewCallback = new PreviewCallback(_configManager, this, controller.metrics(), _frameGate);
+        autoFocusCallback = new AutoFocusCallback(controller.metrics(), _focusState);
     }
 
     /**
      * A factory method to build the appropriate LuminanceSource object based on
-     * the format of the preview buffers, as described by Camera.Parameters.
+     * the format of the preview buffers, as described by Camera.Parameters. The
+     * source crops into the buffers of the calling thread's
+     * {@link LuminanceBufferPool}, so it must be done with before the thread
+     * builds the next one.
+     *
+     * When the display is not in the sensor orientation the source serves the
+     * frame rotated upright without copying it.
      *
      * @param data   A preview frame.
      * @param width  The width of the image.
      * @param height The height of the image.
-     * @return A PlanarYUVLuminanceSource instance.
+     * @return A PlanarYUVLuminanceSource or RotatedYUVLuminanceSource instance.
+     */
+    public FrameLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
+        return buildLuminanceSource(data, width, height, getFramingRectInPreview());
+    }
+
+    /**
+     * Like {@link #buildLuminanceSource(byte[], int, int)} but cropped to the
+     * given rect, in preview coordinates, instead of the framing rect.
      */
-    public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
-        Rect rect = getFramingRectInPreview();
+    @Override public FrameLuminanceSource buildLuminanceSource(Object frame, int width, int height, Rect rect) {
         if (rect == null) return null;
+        byte[] data = (byte[]) frame;
+        int rotation = _configManager.getRotation();
+        if (rotation != 0) return new RotatedYUVLuminanceSource(data, width, height, rotation, rect.left,
+                rect.top, rect.width(), rect.height(), _reverseImage, LuminanceBufferPool.get());
         // Go ahead and assume it's YUV rather than die.
         return new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top, rect.width(),
-                rect.height(), _reverseImage);
+                rect.height(), _reverseImage, LuminanceBufferPool.get());
     }
 
     /**
      * Closes the camera driver if still in use.
      */
-    public void closeDriver() {
+    @Override public synchronized void closeDriver() {
         if (_camera != null) {
+            if (_bufferRing != null) _bufferRing.detach();
             _camera.release();
             _camera = null;
-            // Make sure to clear these each time we close the camera, so that
-            // any scanning rect
-            // requested by intent is forgotten.
-            _framingRect = null;
-            _framingRectInPreview = null;
+            _framingRects.clear();
         }
     }
 
@@ -96,81 +122,67 @@ public final class CameraManager {
      *
      * @return The rectangle to draw on screen in window coordinates.
      */
-    public Rect getFramingRect() {
-        if (_framingRect == null) {
-            if (_camera == null) return null;
-            Point screenResolution = _configManager.getScreenResolution();
-            int width = screenResolution.x * 3 / 4;
-            if (width < MIN_FRAME_WIDTH) width = MIN_FRAME_WIDTH;
-            else if (width > MAX_FRAME_WIDTH) width = MAX_FRAME_WIDTH;
-            int height = screenResolution.y * 4 / 5;
-            if (height < MIN_FRAME_HEIGHT) height = MIN_FRAME_HEIGHT;
-            else if (height > MAX_FRAME_HEIGHT) height = MAX_FRAME_HEIGHT;
-            int leftOffset = (screenResolution.x - width) / 2;
-            int topOffset = (screenResolution.y - height) / 2;
-            _framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
-            Log.d(TAG, "Calculated framing rect: " + _framingRect);
-        }
-        return _framingRect;
+    @Override public Rect getFramingRect() {
+        return _camera == null ? null : _framingRects.getFramingRect();
     }
 
     /**
      * Like {@link #getFramingRect} but coordinates are in terms of the preview
      * frame, not UI / screen.
      */
-    public Rect getFramingRectInPreview() {
-        if (_framingRectInPreview == null) {
-            Rect framingRect = getFramingRect();
-            if (framingRect == null) return null;
-            Rect rect = new Rect(framingRect);
-            Point cameraResolution = _configManager.getCameraResolution();
-            Point screenResolution = _configManager.getScreenResolution();
-            rect.left = rect.left * cameraResolution.x / screenResolution.x;
-            rect.right = rect.right * cameraResolution.x / screenResolution.x;
-            rect.top = rect.top * cameraResolution.y / screenResolution.y;
-            rect.bottom = rect.bottom * cameraResolution.y / screenResolution.y;
-            _framingRectInPreview = rect;
-        }
-        return _framingRectInPreview;
+    @Override public Rect getFramingRectInPreview() {
+        return _camera == null ? null : _framingRects.getFramingRectInPreview();
+    }
+
+    /**
+     * Reads, one time, the preview sizes and orientation of the camera and
+     * sets the hardware parameters.
+     */
+    @Override public synchronized void configure() {
+        if (_camera == null || _framingRects.isConfigured()) return;
+        _configManager.initFromCameraParameters(_camera, CAMERA_ID);
+        _configManager.setDesiredCameraParameters(_camera);
+        _framingRects.onConfigured();
     }
 
     /**
-     * Opens the camera driver and initializes the hardware parameters.
+     * Opens the camera driver. Callbacks of a camera opened on a thread
+     * without a looper, like the opener thread of the controller, arrive on
+     * the main thread.
+     *
+     * @throws IOException Indicates the camera driver failed to open.
+     */
+    @Override public synchronized void open() throws IOException {
+        if (_camera != null) return;
+        Camera theCamera;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) theCamera = Camera.open();
+        else theCamera = Camera.open(CAMERA_ID);
+        if (theCamera == null) throw new IOException();
+        _camera = theCamera;
+    }
+
+    /**
+     * Points the preview at the surface, opening and configuring the camera
+     * first unless done already.
      *
      * @param holder The surface object which the camera will draw preview frames into.
      * @throws IOException Indicates the camera driver failed to open.
      */
-    public void openDriver(SurfaceHolder holder) throws IOException {
-        Camera theCamera = _camera;
-        if (theCamera == null) {
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) theCamera = Camera.open();
-            else theCamera = Camera.open(0);
-            if (theCamera == null) throw new IOException();
-            _camera = theCamera;
-        }
-        theCamera.setPreviewDisplay(holder);
-
-        if (!_initialized) {
-            _initialized = true;
-            _configManager.initFromCameraParameters(theCamera);
-            if (_requestedFramingRectWidth > 0 && _requestedFramingRectHeight > 0) {
-                setManualFramingRect(_requestedFramingRectWidth, _requestedFramingRectHeight);
-                _requestedFramingRectWidth = 0;
-                _requestedFramingRectHeight = 0;
-            }
-        }
-        _configManager.setDesiredCameraParameters(theCamera);
-        _reverseImage = false;
+    @Override public synchronized void openDriver(SurfaceHolder holder) throws IOException {
+        open();
+        configure();
+        _camera.setPreviewDisplay(holder);
     }
 
     /**
-     * Asks the camera hardware to perform an autofocus.
+     * Asks the camera hardware to perform an autofocus. Does nothing in a
+     * continuous focus mode, where the driver focuses on its own.
      *
      * @param handler The Handler to notify when the autofocus completes.
      * @param message The message to deliver.
      */
-    public void requestAutoFocus(Handler handler, int message) {
-        if (_camera != null && _previewing) {
+    @Override public void requestAutoFocus(Handler handler, int message) {
+        if (_camera != null && _previewing && !_configManager.isContinuousFocus()) {
             autoFocusCallback.setHandler(handler, message);
             try {
                 _camera.autoFocus(autoFocusCallback);
@@ -178,14 +190,30 @@ public final class CameraManager {
                 // Have heard RuntimeException reported in Android 4.0.x+;
                 // continue?
                 Log.w(TAG, "Unexpected exception while focusing", re);
+                // No callback will end the sweep setHandler started
+                autoFocusCallback.setHandler(null, 0);
+                _focusState.onSweepEnd();
             }
         }
     }
 
+    /**
+     * Gives a preview frame received through {@link #requestPreviewFrame} back
+     * to the camera once it is no longer needed. Without a buffer ring this does
+     * nothing.
+     *
+     * @param frame The frame delivered in message.obj.
+     */
+    @Override public synchronized void releasePreviewBuffer(Object frame) {
+        if (_camera != null && _bufferRing != null) _bufferRing.release(_camera, (byte[]) frame);
+    }
+
     /**
      * A single preview frame will be returned to the handler supplied. The data
      * will arrive as byte[] in the message.obj field, with width and height
-     * encoded as message.arg1 and message.arg2, respectively.
+     * encoded as message.arg1 and message.arg2, respectively. When preview
+     * buffers are in use the receiver must hand the data back with
+     * {@link #releasePreviewBuffer}.
      *
      * @param handler The handler to send the message to.
      * @param message The what field of the message to be sent.
@@ -194,10 +222,54 @@ public final class CameraManager {
         Camera theCamera = _camera;
         if (theCamera != null && _previewing) {
             previewCallback.setHandler(handler, message);
-            theCamera.setOneShotPreviewCallback(previewCallback);
+            if (_bufferRing == null) theCamera.setOneShotPreviewCallback(previewCallback);
         }
     }
 
+    /**
+     * Like {@link #requestPreviewFrame} but keeps delivering every preview frame
+     * to the handler until {@link #stopPreviewFrames} or {@link #stopPreview} is
+     * called.
+     *
+     * @param handler The handler to send the messages to.
+     * @param message The what field of the messages to be sent.
+     */
+    @Override public void requestPreviewFrames(Handler handler, int message) {
+        Camera theCamera = _camera;
+        if (theCamera != null && _previewing) {
+            previewCallback.setHandler(handler, message, true);
+            if (_bufferRing == null) theCamera.setPreviewCallback(previewCallback);
+        }
+    }
+
+    /**
+     * Thins out the frames {@link #requestPreviewFrames} delivers, the others
+     * are given back to the camera undecoded.
+     *
+     * @param intervalMs Shortest time between two delivered frames, 0 for
+     *                   every frame.
+     */
+    @Override public void setFrameInterval(long intervalMs) {
+        _frameGate.setMinFrameInterval(intervalMs);
+    }
+
+    /**
+     * Stops the delivery started by {@link #requestPreviewFrames}.
+     */
+    @Override public void stopPreviewFrames() {
+        Camera theCamera = _camera;
+        previewCallback.setHandler(null, 0);
+        if (theCamera != null && _previewing && _bufferRing == null) theCamera.setPreviewCallback(null);
+    }
+
+    /**
+     * Records every preview frame delivered from now on, null to stop. The
+     * caller closes the recorder.
+     */
+    @Override public void setFrameRecorder(FrameRecorder recorder) {
+        previewCallback.setRecorder(recorder);
+    }
+
     /**
      * Allows third party apps to specify the scanning rectangle dimensions,
      * rather than determine them automatically based on screen resolution.
@@ -205,32 +277,56 @@ public final class CameraManager {
      * @param width  The width in pixels to scan.
      * @param height The height in pixels to scan.
      */
-    public void setManualFramingRect(int width, int height) {
-        if (_initialized) {
-            Point screenResolution = _configManager.getScreenResolution();
-            if (width > screenResolution.x) width = screenResolution.x;
-            if (height > screenResolution.y) height = screenResolution.y;
-            int leftOffset = (screenResolution.x - width) / 2;
-            int topOffset = (screenResolution.y - height) / 2;
-            _framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
-            Log.d(TAG, "Calculated manual framing rect: " + _framingRect);
-            _framingRectInPreview = null;
-        } else {
-            _requestedFramingRectWidth = width;
-            _requestedFramingRectHeight = height;
-        }
+    @Override public void setManualFramingRect(int width, int height) {
+        _framingRects.setManualFramingRect(width, height);
+    }
+
+    /**
+     * Sets how many preview buffers are preallocated and recycled between the
+     * camera and the decoder, 0 falls back to one-shot preview callbacks which
+     * allocate a new frame each time. Takes effect on the next
+     * {@link #startPreview}.
+     */
+    @Override public void setPreviewBufferCount(int count) {
+        _previewBufferCount = Math.max(0, count);
+    }
+
+    /**
+     * Mirrors frames horizontally before decoding, for codes seen through a
+     * mirror or printed reversed. The frame buffers themselves are not
+     * modified.
+     */
+    @Override public void setReverseImage(boolean reverseImage) {
+        _reverseImage = reverseImage;
+    }
+
+    boolean isReverseImage() {
+        return _reverseImage;
     }
 
-    public void setTorch(boolean isChecked) {
-        _configManager.setTorch(_camera, isChecked);
+    @Override public synchronized void setTorch(boolean on) {
+        if (_camera != null && _framingRects.isConfigured()) _configManager.setTorch(_camera, on);
     }
 
     /**
      * Asks the camera hardware to begin drawing preview frames to the screen.
      */
-    public void startPreview() {
+    @Override public synchronized void startPreview() {
         Camera theCamera = _camera;
         if (theCamera != null && !_previewing) {
+            if (_previewBufferCount > 0) {
+                if (_bufferRing == null || _bufferRing.count() != _previewBufferCount)
+                    _bufferRing = new PreviewBufferRing(_previewBufferCount);
+                _bufferRing.attach(theCamera, PreviewBufferRing.frameSize(theCamera.getParameters()));
+                previewCallback.setBufferRing(_bufferRing);
+                theCamera.setPreviewCallbackWithBuffer(previewCallback);
+            } else {
+                _bufferRing = null;
+                previewCallback.setBufferRing(null);
+            }
+            _focusState.reset();
+            if (_configManager.isContinuousFocus() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                theCamera.setAutoFocusMoveCallback(new FocusMoveCallback(_focusState, _controller.metrics()));
             theCamera.startPreview();
             _previewing = true;
         }
@@ -239,11 +335,18 @@ public final class CameraManager {
     /**
      * Tells the camera to stop drawing preview frames.
      */
-    public void stopPreview() {
+    @Override public synchronized void stopPreview() {
         if (_camera != null && _previewing) {
             _camera.stopPreview();
+            if (_bufferRing != null) {
+                _camera.setPreviewCallbackWithBuffer(null);
+                _bufferRing.detach();
+            } else _camera.setPreviewCallback(null);
+            if (_configManager.isContinuousFocus() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                _camera.setAutoFocusMoveCallback(null);
             previewCallback.setHandler(null, 0);
             autoFocusCallback.setHandler(null, 0);
+            _focusState.reset();
             _previewing = false;
         }
     }
@@ -0,0 +1,36 @@
+package cs.codescanner.scanner.camera;
+
+import android.annotation.TargetApi;
+import android.hardware.Camera;
+import android.os.Build;
+import android.os.SystemClock;
+
+import cs.codescanner.scanner.ScannerMetrics;
+
+/**
+ * Follows the lens in a continuous focus mode, where the driver focuses on
+ * its own and only reports when it starts and stops moving. A sweep that ends
+ * is recorded in the metrics as a successful autofocus cycle.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+final class FocusMoveCallback implements Camera.AutoFocusMoveCallback {
+
+    private final FocusState _focusState;
+    private final ScannerMetrics _metrics;
+
+    FocusMoveCallback(FocusState focusState, ScannerMetrics metrics) {
+        _focusState = focusState;
+        _metrics = metrics;
+    }
+
+    @Override public void onAutoFocusMoving(boolean start, Camera camera) {
+        long now = SystemClock.uptimeMillis();
+        if (start) _focusState.onSweepStart(now);
+        else {
+            long startedAt = _focusState.getSweepStartedAt();
+            if (startedAt >= 0) _metrics.onAutoFocus(true, now - startedAt);
+            _focusState.onSweepEnd();
+        }
+    }
+
+}
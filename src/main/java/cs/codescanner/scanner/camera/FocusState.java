@@ -0,0 +1,55 @@
+package cs.codescanner.scanner.camera;
+
+/**
+ * Whether the lens is moving, shared between the focus callbacks, which see a
+ * sweep start and end, and the preview callback, which drops the blurry frames
+ * taken in between and lets the first sharp one through at once. A sweep
+ * whose end is never reported is given up on after {@link #MAX_SWEEP_MS} so
+ * frames cannot stay blocked.
+ */
+final class FocusState {
+
+    private static final long MAX_SWEEP_MS = 2000;
+
+    private volatile long _sweepStartedAt = -1;
+    private volatile boolean _settled;
+
+    /**
+     * @return true once after a sweep ended, for the first frame taken in
+     *         focus.
+     */
+    boolean consumeSettled() {
+        if (!_settled) return false;
+        _settled = false;
+        return true;
+    }
+
+    boolean isSweeping(long now) {
+        long startedAt = _sweepStartedAt;
+        return startedAt >= 0 && now - startedAt < MAX_SWEEP_MS;
+    }
+
+    /**
+     * @return When the running sweep started, -1 if none is.
+     */
+    long getSweepStartedAt() {
+        return _sweepStartedAt;
+    }
+
+    void onSweepEnd() {
+        if (_sweepStartedAt < 0) return;
+        _sweepStartedAt = -1;
+        _settled = true;
+    }
+
+    void onSweepStart(long now) {
+        _sweepStartedAt = now;
+        _settled = false;
+    }
+
+    void reset() {
+        _sweepStartedAt = -1;
+        _settled = false;
+    }
+
+}
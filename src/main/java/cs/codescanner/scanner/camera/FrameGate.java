@@ -0,0 +1,46 @@
+package cs.codescanner.scanner.camera;
+
+import android.os.SystemClock;
+
+/**
+ * Decides which frames of a continuous preview reach the decoder, for both
+ * camera backends. Frames taken while the lens moves are blurry and skipped,
+ * the first one in focus after a sweep is decoded right away and otherwise,
+ * while throttled, at most one frame per minimum interval gets through. Asked
+ * on the thread frames arrive on.
+ */
+final class FrameGate {
+
+    private final FocusState _focusState;
+    private volatile long _minFrameIntervalMs;
+    private long _lastFrameAt;
+
+    FrameGate(FocusState focusState) {
+        _focusState = focusState;
+    }
+
+    /**
+     * @return true if the frame that just arrived is to be decoded.
+     */
+    boolean accept() {
+        long now = SystemClock.uptimeMillis();
+        // Taken while the lens moves, blurry
+        if (_focusState.isSweeping(now)) return false;
+        // The first frame in focus is decoded right away, throttled or not
+        if (_focusState.consumeSettled()) _lastFrameAt = now;
+        else if (_minFrameIntervalMs > 0) {
+            if (now - _lastFrameAt < _minFrameIntervalMs) return false;
+            _lastFrameAt = now;
+        }
+        return true;
+    }
+
+    /**
+     * @param minFrameIntervalMs Shortest time between two accepted frames, 0
+     *                           to accept every frame in focus.
+     */
+    void setMinFrameInterval(long minFrameIntervalMs) {
+        _minFrameIntervalMs = minFrameIntervalMs;
+    }
+
+}
@@ -0,0 +1,124 @@
+package cs.codescanner.scanner.camera;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.util.Log;
+
+/**
+ * The framing rect of a camera backend, on screen and in preview coordinates,
+ * computed from the resolutions its {@link CameraConfigurationManager} settled
+ * on. A manual size asked for before the camera is configured is applied once
+ * it is.
+ *
+ * The camera is configured on its opener thread while the viewfinder and the
+ * decode threads read the rects, so every method holds this object's monitor.
+ * {@link #onConfigured} is called once the configuration manager holds the
+ * resolutions, which the monitor then publishes to the readers too. The
+ * backend's own monitor is not used, open holds it while the camera starts.
+ */
+final class FramingRects {
+
+    private static final String TAG = FramingRects.class.getSimpleName();
+
+    private static final int MIN_FRAME_WIDTH = 240;
+    private static final int MIN_FRAME_HEIGHT = 240;
+    private static final int MAX_FRAME_WIDTH = 700;
+    private static final int MAX_FRAME_HEIGHT = 400;
+
+    private final CameraConfigurationManager _configManager;
+    private Rect _framingRect;
+    private Rect _framingRectInPreview;
+    private boolean _configured;
+    private int _requestedWidth;
+    private int _requestedHeight;
+
+    FramingRects(CameraConfigurationManager configManager) {
+        _configManager = configManager;
+    }
+
+    /**
+     * Forgets the rects, so that any scanning rect requested by intent is
+     * forgotten when the camera closes.
+     */
+    synchronized void clear() {
+        _framingRect = null;
+        _framingRectInPreview = null;
+    }
+
+    /**
+     * @see CameraBackend#getFramingRect
+     */
+    synchronized Rect getFramingRect() {
+        if (_framingRect == null) {
+            if (!_configured) return null;
+            Point screenResolution = _configManager.getScreenResolution();
+            int width = screenResolution.x * 3 / 4;
+            if (width < MIN_FRAME_WIDTH) width = MIN_FRAME_WIDTH;
+            else if (width > MAX_FRAME_WIDTH) width = MAX_FRAME_WIDTH;
+            int height = screenResolution.y * 4 / 5;
+            if (height < MIN_FRAME_HEIGHT) height = MIN_FRAME_HEIGHT;
+            else if (height > MAX_FRAME_HEIGHT) height = MAX_FRAME_HEIGHT;
+            int leftOffset = (screenResolution.x - width) / 2;
+            int topOffset = (screenResolution.y - height) / 2;
+            _framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
+            Log.d(TAG, "Calculated framing rect: " + _framingRect);
+        }
+        return _framingRect;
+    }
+
+    /**
+     * @see CameraBackend#getFramingRectInPreview
+     */
+    synchronized Rect getFramingRectInPreview() {
+        if (_framingRectInPreview == null) {
+            Rect framingRect = getFramingRect();
+            if (framingRect == null) return null;
+            Rect rect = new Rect(framingRect);
+            Point cameraResolution = _configManager.getRotatedCameraResolution();
+            Point screenResolution = _configManager.getScreenResolution();
+            rect.left = rect.left * cameraResolution.x / screenResolution.x;
+            rect.right = rect.right * cameraResolution.x / screenResolution.x;
+            rect.top = rect.top * cameraResolution.y / screenResolution.y;
+            rect.bottom = rect.bottom * cameraResolution.y / screenResolution.y;
+            _framingRectInPreview = rect;
+        }
+        return _framingRectInPreview;
+    }
+
+    synchronized boolean isConfigured() {
+        return _configured;
+    }
+
+    /**
+     * Called once the configuration manager knows the screen and camera
+     * resolutions.
+     */
+    synchronized void onConfigured() {
+        _configured = true;
+        if (_requestedWidth > 0 && _requestedHeight > 0) {
+            setManualFramingRect(_requestedWidth, _requestedHeight);
+            _requestedWidth = 0;
+            _requestedHeight = 0;
+        }
+    }
+
+    /**
+     * @see CameraBackend#setManualFramingRect
+     */
+    synchronized void setManualFramingRect(int width, int height) {
+        if (_configured) {
+            Point screenResolution = _configManager.getScreenResolution();
+            if (width > screenResolution.x) width = screenResolution.x;
+            if (height > screenResolution.y) height = screenResolution.y;
+            int leftOffset = (screenResolution.x - width) / 2;
+            int topOffset = (screenResolution.y - height) / 2;
+            _framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
+            Log.d(TAG, "Calculated manual framing rect: " + _framingRect);
+            _framingRectInPreview = null;
+        } else {
+            _requestedWidth = width;
+            _requestedHeight = height;
+        }
+    }
+
+}
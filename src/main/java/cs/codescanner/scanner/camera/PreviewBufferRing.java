@@ -0,0 +1,91 @@
+package cs.codescanner.scanner.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+/**
+ * A small ring of preallocated preview buffers which circulate between the
+ * camera driver and the decoder. Buffers are handed to the driver with
+ * {@link Camera#addCallbackBuffer(byte[])}, delivered back through
+ * {@link Camera#setPreviewCallbackWithBuffer(Camera.PreviewCallback)} and
+ * returned once the decoder is done with them, so steady-state scanning does
+ * not allocate a frame per preview callback.
+ */
+final class PreviewBufferRing {
+
+    private final byte[][] _buffers;
+    private final boolean[] _queued;
+    private int _frameSize;
+    private boolean _attached;
+
+    PreviewBufferRing(int count) {
+        _buffers = new byte[count][];
+        _queued = new boolean[count];
+    }
+
+    static int frameSize(Camera.Parameters parameters) {
+        Camera.Size size = parameters.getPreviewSize();
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(parameters.getPreviewFormat());
+        if (bitsPerPixel <= 0) bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
+        return size.width * size.height * bitsPerPixel / 8;
+    }
+
+    /**
+     * Queues every buffer of the ring to the camera, reallocating them only when
+     * the frame size changed since the last call.
+     */
+    synchronized void attach(Camera camera, int frameSize) {
+        if (frameSize != _frameSize) {
+            for (int i = 0; i < _buffers.length; i++) _buffers[i] = new byte[frameSize];
+            _frameSize = frameSize;
+        }
+        for (int i = 0; i < _buffers.length; i++) {
+            camera.addCallbackBuffer(_buffers[i]);
+            _queued[i] = true;
+        }
+        _attached = true;
+    }
+
+    /**
+     * Forgets the camera the buffers were queued to. Buffers still held by the
+     * decoder are not requeued when released, {@link #attach} queues all of them
+     * again.
+     */
+    synchronized void detach() {
+        _attached = false;
+        for (int i = 0; i < _queued.length; i++) _queued[i] = false;
+    }
+
+    int count() {
+        return _buffers.length;
+    }
+
+    /**
+     * Records that the camera has filled the buffer and handed it over.
+     */
+    synchronized void onFrame(byte[] buffer) {
+        int index = indexOf(buffer);
+        if (index >= 0) _queued[index] = false;
+    }
+
+    /**
+     * Gives the buffer back to the camera. Foreign buffers, buffers which are
+     * already queued and buffers released after {@link #detach} are ignored.
+     *
+     * @return true if the buffer was queued to the camera.
+     */
+    synchronized boolean release(Camera camera, byte[] buffer) {
+        int index = indexOf(buffer);
+        if (!_attached || index < 0 || _queued[index]) return false;
+        camera.addCallbackBuffer(buffer);
+        _queued[index] = true;
+        return true;
+    }
+
+    private int indexOf(byte[] buffer) {
+        for (int i = 0; i < _buffers.length; i++)
+            if (_buffers[i] == buffer) return i;
+        return -1;
+    }
+
+}
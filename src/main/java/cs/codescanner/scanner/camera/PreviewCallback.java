@@ -17,37 +17,89 @@
 package cs.codescanner.scanner.camera;
 
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
 
+import cs.codescanner.scanner.ScannerMetrics;
+import cs.codescanner.scanner.decode.FrameRecorder;
+
 final class PreviewCallback implements Camera.PreviewCallback {
 
 	private static final String TAG = PreviewCallback.class.getSimpleName();
 
 	private final CameraConfigurationManager configManager;
+	private final CameraManager cameraManager;
+	private final ScannerMetrics metrics;
+	private final FrameGate frameGate;
+	private PreviewBufferRing bufferRing;
+	private volatile FrameRecorder recorder;
 	private Handler previewHandler;
 	private int previewMessage;
+	private boolean continuous;
 
-	PreviewCallback(CameraConfigurationManager configManager) {
+	PreviewCallback(CameraConfigurationManager configManager, CameraManager cameraManager,
+			ScannerMetrics metrics, FrameGate frameGate) {
 		this.configManager = configManager;
+		this.cameraManager = cameraManager;
+		this.metrics = metrics;
+		this.frameGate = frameGate;
 	}
 
 	 public void onPreviewFrame(byte[] data, Camera camera) {
+		metrics.onFrameDelivered();
+		PreviewBufferRing ring = bufferRing;
+		if (ring != null) ring.onFrame(data);
 		Point cameraResolution = configManager.getCameraResolution();
+		FrameRecorder theRecorder = recorder;
+		if (theRecorder != null) {
+			Rect rect = cameraManager.getFramingRectInPreview();
+			// The rect is in rotated coordinates, the frame as the sensor delivered it
+			if (rect != null) theRecorder.record(data, cameraResolution.x, cameraResolution.y, rect.left,
+					rect.top, rect.right, rect.bottom, configManager.getRotation(),
+					cameraManager.isReverseImage());
+		}
 		Handler thePreviewHandler = previewHandler;
+		// Frames the gate holds back go back to the camera undecoded
+		if (thePreviewHandler != null && continuous && !frameGate.accept()) thePreviewHandler = null;
 		if (thePreviewHandler != null) {
 			Message message = thePreviewHandler.obtainMessage(previewMessage, cameraResolution.x,
 					cameraResolution.y, data);
 			message.sendToTarget();
-			previewHandler = null;
-		} else Log.d(TAG, "Got preview callback, but no handler for it");
+			if (!continuous) previewHandler = null;
+		} else if (ring != null) {
+			metrics.onFrameDropped();
+			ring.release(camera, data);
+		} else if (previewHandler != null) metrics.onFrameDropped();
+		else Log.d(TAG, "Got preview callback, but no handler for it");
+	}
+
+	/**
+	 * With a buffer ring frames keep arriving while nobody asked for one, those
+	 * are given straight back to the camera.
+	 */
+	void setBufferRing(PreviewBufferRing bufferRing) {
+		this.bufferRing = bufferRing;
+	}
+
+	void setRecorder(FrameRecorder recorder) {
+		this.recorder = recorder;
 	}
 
 	void setHandler(Handler previewHandler, int previewMessage) {
-		this.previewHandler = previewHandler;
+		setHandler(previewHandler, previewMessage, false);
+	}
+
+	/**
+	 * @param continuous If true every following frame is delivered to the
+	 *          handler, otherwise only the next one.
+	 */
+	void setHandler(Handler previewHandler, int previewMessage, boolean continuous) {
 		this.previewMessage = previewMessage;
+		this.continuous = continuous;
+		this.previewHandler = previewHandler;
 	}
 
 }
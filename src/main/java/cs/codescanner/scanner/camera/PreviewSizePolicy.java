@@ -0,0 +1,188 @@
+package cs.codescanner.scanner.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import cs.codescanner.scanner.LatencyHistogram;
+import cs.codescanner.scanner.ScannerMetrics;
+import cs.codescanner.scanner.decode.DecodeOutcome;
+
+import static cs.java.lang.CSLang.info;
+
+/**
+ * Chooses how many pixels the preview may have from how the decoder kept up
+ * with it. Sizes are grouped into {@link #TIERS} by pixel count. After each
+ * scanning session the 90th percentile decode time and the share of decoded
+ * frames that found a code are compared with a decode budget: over budget
+ * steps down a tier, well within it while codes are rarely found steps up one,
+ * as more pixels help small and dense codes. A tier that once ran over budget
+ * is not tried again, so the choice settles instead of swinging between two
+ * tiers. The tier is stored in shared preferences under the device model and
+ * read back the next time the scanner is created.
+ */
+public final class PreviewSizePolicy {
+
+    /**
+     * Upper pixel count of each tier, the first tier reaching down to the
+     * smallest supported size.
+     */
+    public static final int[] TIERS = {320 * 240, 640 * 480, 800 * 480, 1280 * 720, 1920 * 1080};
+
+    // 800x480, the size the scanner always used before the policy
+    private static final int DEFAULT_TIER = 2;
+    private static final long DEFAULT_BUDGET_MS = 64;
+    private static final float DEFAULT_TARGET_SUCCESS_RATE = 0.05f;
+    private static final int DEFAULT_MIN_FRAMES = 30;
+    private static final String PREFERENCES = "cs.codescanner.scanner.PreviewSizePolicy";
+
+    private final SharedPreferences _preferences;
+    private final String _key;
+    private final long[] _startNotFound = new long[LatencyHistogram.BUCKETS];
+    private final long[] _startFound = new long[LatencyHistogram.BUCKETS];
+    private final long[] _buckets = new long[LatencyHistogram.BUCKETS];
+    private long _budgetMs = DEFAULT_BUDGET_MS;
+    private float _targetSuccessRate = DEFAULT_TARGET_SUCCESS_RATE;
+    private int _minFrames = DEFAULT_MIN_FRAMES;
+    private int _tier;
+    private int _ceiling;
+    private boolean _sessionStarted;
+
+    public PreviewSizePolicy(Context context) {
+        _preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        // Keyed by model so a backup restored to another device starts over
+        _key = Build.MANUFACTURER + "/" + Build.MODEL;
+        _tier = clampTier(_preferences.getInt(_key + "/tier", DEFAULT_TIER));
+        _ceiling = clampTier(_preferences.getInt(_key + "/ceiling", TIERS.length - 1));
+        _tier = Math.min(_tier, _ceiling);
+    }
+
+    public long getDecodeBudget() {
+        return _budgetMs;
+    }
+
+    /**
+     * @return The largest preview pixel count of the current tier.
+     */
+    public int getMaxPreviewPixels() {
+        return TIERS[_tier];
+    }
+
+    /**
+     * @return The pixel count the next smaller tier ends at, sizes above it and
+     * up to {@link #getMaxPreviewPixels} are preferred.
+     */
+    public int getMinPreviewPixels() {
+        return _tier == 0 ? 0 : TIERS[_tier - 1];
+    }
+
+    public int getTier() {
+        return _tier;
+    }
+
+    /**
+     * Forgets what earlier sessions measured and goes back to the default
+     * tier.
+     */
+    public void reset() {
+        _tier = DEFAULT_TIER;
+        _ceiling = TIERS.length - 1;
+        save();
+    }
+
+    /**
+     * @param budgetMs 90th percentile decode time a frame should stay within.
+     */
+    public void setDecodeBudget(long budgetMs) {
+        _budgetMs = budgetMs;
+    }
+
+    /**
+     * @param frames Decoded frames a session needs before it counts.
+     */
+    public void setMinFrames(int frames) {
+        _minFrames = frames;
+    }
+
+    /**
+     * Fixes the tier, for example from a device profile, lifting the limit
+     * earlier sessions put on it.
+     */
+    public void setTier(int tier) {
+        _tier = clampTier(tier);
+        _ceiling = TIERS.length - 1;
+        save();
+    }
+
+    /**
+     * @param rate Share of decoded frames finding a code below which a
+     *             session within budget steps up a tier.
+     */
+    public void setTargetSuccessRate(float rate) {
+        _targetSuccessRate = rate;
+    }
+
+    /**
+     * Remembers where the decode histograms stand when scanning resumes.
+     */
+    public void onSessionStart(ScannerMetrics metrics) {
+        metrics.decodeLatency(DecodeOutcome.Status.NOT_FOUND).getBuckets(_startNotFound);
+        metrics.decodeLatency(DecodeOutcome.Status.FOUND).getBuckets(_startFound);
+        _sessionStarted = true;
+    }
+
+    /**
+     * Judges the session from what the decode histograms gained since
+     * {@link #onSessionStart} and moves and stores the tier for the next one.
+     */
+    public void onSessionEnd(ScannerMetrics metrics) {
+        if (!_sessionStarted) return;
+        _sessionStarted = false;
+        // Both outcomes go into one histogram, the found ones also counted apart
+        metrics.decodeLatency(DecodeOutcome.Status.FOUND).getBuckets(_buckets);
+        long found = 0;
+        for (int i = 0; i < _buckets.length; i++) {
+            _startFound[i] = _buckets[i] - _startFound[i];
+            found += _startFound[i];
+        }
+        metrics.decodeLatency(DecodeOutcome.Status.NOT_FOUND).getBuckets(_buckets);
+        long decoded = 0;
+        for (int i = 0; i < _buckets.length; i++) {
+            _buckets[i] += _startFound[i] - _startNotFound[i];
+            decoded += _buckets[i];
+        }
+        if (decoded < _minFrames) return;
+
+        long percentile = percentile(_buckets, decoded, 0.9f);
+        float successRate = (float) found / decoded;
+        int tier = _tier;
+        if (percentile > _budgetMs && tier > 0) {
+            _ceiling = tier - 1;
+            tier--;
+        } else if (percentile * 2 <= _budgetMs && successRate < _targetSuccessRate && tier < _ceiling)
+            tier++;
+        info("Preview size policy: p90 " + percentile + " ms, success " + successRate + ", tier "
+                + _tier + " -> " + tier);
+        _tier = tier;
+        save();
+    }
+
+    private static int clampTier(int tier) {
+        return Math.max(0, Math.min(TIERS.length - 1, tier));
+    }
+
+    private static long percentile(long[] buckets, long count, float fraction) {
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return LatencyHistogram.bucketUpperBound(i);
+        }
+        return LatencyHistogram.bucketUpperBound(buckets.length - 1);
+    }
+
+    private void save() {
+        _preferences.edit().putInt(_key + "/tier", _tier).putInt(_key + "/ceiling", _ceiling).apply();
+    }
+
+}
@@ -0,0 +1,103 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+/**
+ * Chooses which binarizers a frame goes through. Adaptive, the cheap
+ * {@link GlobalHistogramBinarizer} is tried first with {@link HybridBinarizer}
+ * as the fallback when it finds nothing, as long as rolling statistics say the
+ * cheap pass pays off for the current scene: its hit rate times the cost of a
+ * hybrid pass must exceed its own cost. Otherwise frames go straight to the
+ * hybrid binarizer, with every {@link #EXPLORE_INTERVAL}th frame still trying
+ * the cheap one first to keep its statistics current.
+ *
+ * Attempts, hits and time spent are counted per binarizer. Shared by all decode
+ * threads.
+ */
+public final class BinarizerStrategy {
+
+    public enum Kind {
+        GLOBAL_HISTOGRAM, HYBRID
+    }
+
+    private static final int EXPLORE_INTERVAL = 16;
+    private static final float SMOOTHING = 0.05f;
+
+    private final long[] _attempts = new long[Kind.values().length];
+    private final long[] _hits = new long[_attempts.length];
+    private final long[] _nanos = new long[_attempts.length];
+    private final float[] _hitRate = {0.5f, 0.5f};
+    private final float[] _averageNanos = new float[_attempts.length];
+    private boolean _adaptive = true;
+    private int _frames;
+
+    static Binarizer create(Kind kind, LuminanceSource source) {
+        return kind == Kind.GLOBAL_HISTOGRAM ? new GlobalHistogramBinarizer(source)
+                : new HybridBinarizer(source);
+    }
+
+    /**
+     * Writes the binarizers to try for the next frame, in order.
+     *
+     * @param order Array of at least two elements.
+     * @return The number of binarizers written.
+     */
+    synchronized int plan(Kind[] order) {
+        int hybrid = Kind.HYBRID.ordinal();
+        int global = Kind.GLOBAL_HISTOGRAM.ordinal();
+        boolean cheapFirst = _adaptive && (++_frames % EXPLORE_INTERVAL == 0
+                || _hitRate[global] * _averageNanos[hybrid] >= _averageNanos[global]);
+        if (!cheapFirst) {
+            order[0] = Kind.HYBRID;
+            return 1;
+        }
+        order[0] = Kind.GLOBAL_HISTOGRAM;
+        order[1] = Kind.HYBRID;
+        return 2;
+    }
+
+    synchronized void record(Kind kind, boolean hit, long nanos) {
+        int index = kind.ordinal();
+        _attempts[index]++;
+        if (hit) _hits[index]++;
+        _nanos[index] += nanos;
+        _hitRate[index] += SMOOTHING * ((hit ? 1 : 0) - _hitRate[index]);
+        _averageNanos[index] = _attempts[index] == 1 ? nanos
+                : _averageNanos[index] + SMOOTHING * (nanos - _averageNanos[index]);
+    }
+
+    public synchronized long getAttempts(Kind kind) {
+        return _attempts[kind.ordinal()];
+    }
+
+    public synchronized long getHits(Kind kind) {
+        return _hits[kind.ordinal()];
+    }
+
+    /**
+     * @return Hit rate smoothed over roughly the last twenty attempts.
+     */
+    public synchronized float getRecentHitRate(Kind kind) {
+        return _hitRate[kind.ordinal()];
+    }
+
+    public synchronized long getTotalNanos(Kind kind) {
+        return _nanos[kind.ordinal()];
+    }
+
+    public synchronized boolean isAdaptive() {
+        return _adaptive;
+    }
+
+    /**
+     * @param adaptive false to always use the hybrid binarizer only, as before
+     *                 the strategy existed.
+     */
+    public synchronized void setAdaptive(boolean adaptive) {
+        _adaptive = adaptive;
+    }
+
+}
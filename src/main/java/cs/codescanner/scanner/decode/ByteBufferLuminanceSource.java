@@ -0,0 +1,143 @@
+package cs.codescanner.scanner.decode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A LuminanceSource over the luminance of a frame held in a ByteBuffer, heap,
+ * direct or memory-mapped, read in place with an explicit row and pixel
+ * stride. Rows padded by the camera, the Y plane of a camera2 image or a frame
+ * in a capture file thus need no copy into a packed array first.
+ *
+ * Crops, mirrors and downsamples like {@link PlanarYUVLuminanceSource}: the
+ * frame itself is never modified, a downsampled view reads every n-th pixel
+ * of the same buffer and a cropped one part of it. Rows of a packed,
+ * unmirrored view are read with one bulk get each. The buffer's position and
+ * limit are ignored and left alone, so several sources may share it.
+ */
+public final class ByteBufferLuminanceSource extends FrameLuminanceSource {
+
+    private final ByteBuffer _buffer;
+    private final int _rowStride;
+    private final int _pixelStride;
+    private final int _left;
+    private final int _top;
+    private final int _step;
+    private final boolean _reverseHorizontal;
+    private final LuminanceBufferPool _buffers;
+
+    /**
+     * A source over a planar luminance plane, its rows possibly padded.
+     *
+     * @param rowStride Bytes from the start of one row to the next, at least
+     *                  dataWidth.
+     * @param buffers   Pool serving the matrix and rows, null to allocate them.
+     */
+    public ByteBufferLuminanceSource(ByteBuffer buffer, int rowStride, int dataWidth, int dataHeight,
+                                     int left, int top, int width, int height,
+                                     LuminanceBufferPool buffers) {
+        this(buffer, rowStride, 1, dataWidth, dataHeight, left, top, width, height, false, buffers);
+    }
+
+    /**
+     * @param rowStride   Bytes from the start of one row to the next.
+     * @param pixelStride Bytes from one pixel of a row to the next, 1 for a
+     *                    planar luminance plane, 2 for the interleaved Y of
+     *                    YUYV.
+     */
+    public ByteBufferLuminanceSource(ByteBuffer buffer, int rowStride, int pixelStride, int dataWidth,
+                                     int dataHeight, int left, int top, int width, int height,
+                                     boolean reverseHorizontal, LuminanceBufferPool buffers) {
+        super(width, height);
+        if (left + width > dataWidth || top + height > dataHeight)
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        if (pixelStride < 1 || rowStride < (dataWidth - 1) * pixelStride + 1)
+            throw new IllegalArgumentException("Strides too small for the width: " + rowStride + ", "
+                    + pixelStride);
+        // A view of its own, bulk gets move the position
+        _buffer = buffer.duplicate();
+        _buffer.clear();
+        _rowStride = rowStride;
+        _pixelStride = pixelStride;
+        _step = 1;
+        _reverseHorizontal = reverseHorizontal;
+        _buffers = buffers;
+        // When mirrored, left is the rightmost column of the crop and rows are
+        // read backwards from there
+        _left = reverseHorizontal ? left + width - 1 : left;
+        _top = top;
+    }
+
+    /**
+     * A view of the source with its origin at left and top of the data.
+     */
+    private ByteBufferLuminanceSource(ByteBufferLuminanceSource source, int left, int top, int width,
+                                      int height, int step) {
+        super(width, height);
+        _buffer = source._buffer;
+        _rowStride = source._rowStride;
+        _pixelStride = source._pixelStride;
+        _left = left;
+        _top = top;
+        _step = step;
+        _reverseHorizontal = source._reverseHorizontal;
+        _buffers = source._buffers;
+    }
+
+    @Override public ByteBufferLuminanceSource downsample(int factor) {
+        if (factor == 1) return this;
+        return new ByteBufferLuminanceSource(this, _left, _top, getWidth() / factor, getHeight() / factor,
+                _step * factor);
+    }
+
+    @Override public ByteBufferLuminanceSource crop(int left, int top, int width, int height) {
+        checkCrop(left, top, width, height);
+        int dx = _reverseHorizontal ? -_step : _step;
+        return new ByteBufferLuminanceSource(this, _left + left * dx, _top + top * _step, width, height, _step);
+    }
+
+    @Override public boolean isMirrored() {
+        return _reverseHorizontal;
+    }
+
+    @Override public byte[] getMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+        int area = width * height;
+        byte[] matrix = _buffers == null ? new byte[area] : _buffers.matrix(area);
+        // A packed plane cropped to its full width is a single bulk get
+        if (isBulk() && _rowStride == width && _left == 0) {
+            _buffer.position(_top * _rowStride);
+            _buffer.get(matrix, 0, area);
+            return matrix;
+        }
+        for (int y = 0; y < height; y++) read(y, matrix, y * width);
+        return matrix;
+    }
+
+    @Override public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight())
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        int width = getWidth();
+        if (row == null || row.length < width) row = _buffers == null ? new byte[width] : _buffers.row(width);
+        read(y, row, 0);
+        return row;
+    }
+
+    private boolean isBulk() {
+        return _step == 1 && _pixelStride == 1 && !_reverseHorizontal;
+    }
+
+    private void read(int y, byte[] into, int offset) {
+        ByteBuffer buffer = _buffer;
+        int width = getWidth();
+        int input = (y * _step + _top) * _rowStride + _left * _pixelStride;
+        if (isBulk()) {
+            buffer.position(input);
+            buffer.get(into, offset, width);
+            return;
+        }
+        int dx = (_reverseHorizontal ? -_step : _step) * _pixelStride;
+        for (int end = offset + width; offset < end; offset++, input += dx) into[offset] = buffer.get(input);
+    }
+
+}
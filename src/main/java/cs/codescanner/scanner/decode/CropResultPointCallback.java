@@ -0,0 +1,70 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+
+/**
+ * Moves the candidate points a {@link FrameDecoder} finds in its source,
+ * possibly downsampled or mirrored, back into the caller's coordinates before
+ * passing them on: scaled to the full source, mirrored back and offset. Each
+ * decoder owns one and sets the offset, scale and mirroring of the source it
+ * decodes.
+ */
+final class CropResultPointCallback implements ResultPointCallback {
+
+    private final ResultPointCallback _delegate;
+    private int _offsetX;
+    private int _offsetY;
+    private int _scale = 1;
+    private int _mirrorWidth;
+
+    CropResultPointCallback(ResultPointCallback delegate) {
+        _delegate = delegate;
+    }
+
+    public void foundPossibleResultPoint(ResultPoint point) {
+        if (_delegate != null) _delegate.foundPossibleResultPoint(toFrame(point));
+    }
+
+    /**
+     * @param offsetX Left of the source in the caller's coordinates.
+     * @param offsetY Top of the source in the caller's coordinates.
+     */
+    void setOffset(int offsetX, int offsetY) {
+        _offsetX = offsetX;
+        _offsetY = offsetY;
+    }
+
+    /**
+     * @param width Width of the full resolution source if it is mirrored, 0
+     *              if not.
+     */
+    void setMirrorWidth(int width) {
+        _mirrorWidth = width;
+    }
+
+    /**
+     * @param scale How many pixels of the caller's coordinates one pixel of
+     *              the decoded source spans, 1 unless downsampled.
+     */
+    void setScale(int scale) {
+        _scale = scale;
+    }
+
+    /**
+     * Moves the points of a result decoded in the current source in place.
+     */
+    void toFrame(ResultPoint[] points) {
+        if (points == null) return;
+        for (int i = 0; i < points.length; i++)
+            if (points[i] != null) points[i] = toFrame(points[i]);
+    }
+
+    private ResultPoint toFrame(ResultPoint point) {
+        if (_offsetX == 0 && _offsetY == 0 && _scale == 1 && _mirrorWidth == 0) return point;
+        float x = point.getX() * _scale;
+        if (_mirrorWidth > 0) x = _mirrorWidth - 1 - x;
+        return new ResultPoint(x + _offsetX, point.getY() * _scale + _offsetY);
+    }
+
+}
@@ -0,0 +1,111 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.Result;
+
+/**
+ * What a {@link FrameDecoder} made of one frame and how long each stage took.
+ * The decoder reuses one instance, so it is only valid until its next decode.
+ */
+public final class DecodeOutcome {
+
+    public enum Status {
+        /**
+         * Rejected by the {@link FrameQualityGate} without decoding.
+         */
+        REJECTED,
+        NOT_FOUND,
+        FOUND
+    }
+
+    private Status _status;
+    private Result[] _results;
+    private int _level;
+    private long _qualityNanos;
+    private long _coarseNanos;
+    private long _fullNanos;
+
+    DecodeOutcome() {
+        reset();
+    }
+
+    /**
+     * @return {@link DecodePyramid#COARSE} or {@link DecodePyramid#FULL} if
+     * found, -1 otherwise.
+     */
+    public int getLevel() {
+        return _level;
+    }
+
+    /**
+     * @return Time spent on the coarse pass, 0 if skipped.
+     */
+    public long getCoarseNanos() {
+        return _coarseNanos;
+    }
+
+    /**
+     * @return Time spent on the full resolution pass, 0 if not needed.
+     */
+    public long getFullNanos() {
+        return _fullNanos;
+    }
+
+    /**
+     * @return Time spent in the quality gate, 0 without one.
+     */
+    public long getQualityNanos() {
+        return _qualityNanos;
+    }
+
+    /**
+     * @return The codes found, in the caller's coordinates, null unless
+     * {@link Status#FOUND}. A single result unless decoding multiple.
+     */
+    public Result[] getResults() {
+        return _results;
+    }
+
+    public Status getStatus() {
+        return _status;
+    }
+
+    public long getTotalNanos() {
+        return _qualityNanos + _coarseNanos + _fullNanos;
+    }
+
+    public boolean isFound() {
+        return _status == Status.FOUND;
+    }
+
+    void found(Result[] results, int level) {
+        _status = Status.FOUND;
+        _results = results;
+        _level = level;
+    }
+
+    void reset() {
+        _status = Status.NOT_FOUND;
+        _results = null;
+        _level = -1;
+        _qualityNanos = 0;
+        _coarseNanos = 0;
+        _fullNanos = 0;
+    }
+
+    void setCoarseNanos(long nanos) {
+        _coarseNanos = nanos;
+    }
+
+    void setFullNanos(long nanos) {
+        _fullNanos = nanos;
+    }
+
+    void setQualityNanos(long nanos) {
+        _qualityNanos = nanos;
+    }
+
+    void setStatus(Status status) {
+        _status = status;
+    }
+
+}
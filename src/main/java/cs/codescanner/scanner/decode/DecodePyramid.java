@@ -0,0 +1,66 @@
+package cs.codescanner.scanner.decode;
+
+/**
+ * Settings and statistics of the coarse-to-fine decode. Each frame is first
+ * decoded on a view of the crop downsampled by the coarse factor, which is
+ * enough for large, close-up codes at a fraction of the cost, and only at full
+ * resolution if that finds nothing. Crops too small to be worth downsampling
+ * go straight to full resolution. Attempts, hits and time are counted per
+ * level. Shared by all decode threads.
+ */
+public final class DecodePyramid {
+
+    public static final int COARSE = 0;
+    public static final int FULL = 1;
+    private static final int DEFAULT_COARSE_FACTOR = 2;
+    private static final int MIN_COARSE_SIZE = 100;
+
+    private final long[] _attempts = new long[2];
+    private final long[] _hits = new long[2];
+    private final long[] _nanos = new long[2];
+    private int _coarseFactor = DEFAULT_COARSE_FACTOR;
+
+    /**
+     * @return The factor to downsample a crop of the given size by for the
+     * coarse pass, 1 to skip it.
+     */
+    synchronized int coarseFactor(int width, int height) {
+        int factor = _coarseFactor;
+        if (factor < 2 || width / factor < MIN_COARSE_SIZE || height / factor < MIN_COARSE_SIZE) return 1;
+        return factor;
+    }
+
+    synchronized void record(int level, boolean hit, long nanos) {
+        _attempts[level]++;
+        if (hit) _hits[level]++;
+        _nanos[level] += nanos;
+    }
+
+    /**
+     * @param level {@link #COARSE} or {@link #FULL}.
+     */
+    public synchronized long getAttempts(int level) {
+        return _attempts[level];
+    }
+
+    public synchronized long getHits(int level) {
+        return _hits[level];
+    }
+
+    public synchronized float getHitRate(int level) {
+        return _attempts[level] == 0 ? 0 : (float) _hits[level] / _attempts[level];
+    }
+
+    public synchronized long getTotalNanos(int level) {
+        return _nanos[level];
+    }
+
+    /**
+     * @param factor Downsampling of the coarse pass, 2 takes every second pixel
+     *               in both directions. 1 disables the coarse pass.
+     */
+    public synchronized void setCoarseFactor(int factor) {
+        _coarseFactor = Math.max(1, factor);
+    }
+
+}
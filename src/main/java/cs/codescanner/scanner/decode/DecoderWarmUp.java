@@ -0,0 +1,101 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Decodes synthetic frames of a QR, an EAN-13 and a Code 128 code on the
+ * calling thread, so the readers' classes are loaded, their static tables
+ * built, the hot loops compiled and the thread's {@link LuminanceBufferPool}
+ * sized before the first camera frame arrives. The frames go through a
+ * decoder of their own trying every format, statistics shared with the live
+ * decoders are not touched.
+ *
+ * The frame building helpers are public for the tests and benchmarks, which
+ * draw their codes the same way.
+ */
+public final class DecoderWarmUp {
+
+    public static final int WIDTH = 640;
+    public static final int HEIGHT = 480;
+    private static final int DARK = 50;
+    private static final int LIGHT = 180;
+    private static final BarcodeFormat[] FORMATS = {BarcodeFormat.QR_CODE, BarcodeFormat.EAN_13,
+            BarcodeFormat.CODE_128};
+
+    /**
+     * @return A WIDTH x HEIGHT luminance plane with a code of the given format
+     * centered in it.
+     */
+    public static byte[] frame(BarcodeFormat format) {
+        boolean twoD = format == BarcodeFormat.QR_CODE;
+        String contents = format == BarcodeFormat.EAN_13 ? "5901234123457" : "CS-SCANNER-WARM-UP";
+        return frame(WIDTH, HEIGHT, encode(contents, format, twoD ? 240 : 440, twoD ? 240 : 140));
+    }
+
+    /**
+     * @return A light frame of the given size with the code centered in it.
+     */
+    public static byte[] frame(int width, int height, BitMatrix code) {
+        byte[] frame = blank(width, height);
+        draw(frame, width, code, (width - code.getWidth()) / 2, (height - code.getHeight()) / 2, 1);
+        return frame;
+    }
+
+    /**
+     * @return A preview frame of the given size, chroma planes included, with
+     * a light Y plane.
+     */
+    public static byte[] blank(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        Arrays.fill(frame, 0, width * height, (byte) LIGHT);
+        return frame;
+    }
+
+    /**
+     * Draws the dark modules of a code into a Y plane, each scale pixels
+     * square, its top left corner at left and top.
+     */
+    public static void draw(byte[] plane, int planeWidth, BitMatrix code, int left, int top, int scale) {
+        for (int y = 0; y < code.getHeight() * scale; y++)
+            for (int x = 0; x < code.getWidth() * scale; x++)
+                if (code.get(x / scale, y / scale)) plane[(top + y) * planeWidth + left + x] = (byte) DARK;
+    }
+
+    /**
+     * Like {@link MultiFormatWriter#encode(String, BarcodeFormat, int, int)}
+     * for contents known to fit the format.
+     */
+    public static BitMatrix encode(String contents, BarcodeFormat format, int width, int height) {
+        try {
+            return new MultiFormatWriter().encode(contents, format, width, height);
+        } catch (WriterException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @param rounds Times each frame is decoded.
+     * @return Frames that were found, of rounds times three.
+     */
+    public static int run(int rounds) {
+        FrameDecoder decoder = new FrameDecoder(Collections.<DecodeHintType, Object>emptyMap());
+        int found = 0;
+        for (BarcodeFormat format : FORMATS) {
+            byte[] frame = frame(format);
+            for (int i = 0; i < rounds; i++)
+                if (decoder.decode(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT).isFound()) found++;
+        }
+        return found;
+    }
+
+    private DecoderWarmUp() {
+    }
+
+}
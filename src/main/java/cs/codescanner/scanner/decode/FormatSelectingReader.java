@@ -0,0 +1,119 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decodes with the formats selected by {@link FormatStatistics} when it can,
+ * and with every enabled format on the periodic full passes. The selected
+ * formats are tried in order of frequency: each 2D format has a reader of its
+ * own, the 1D formats share one as they are found by the same row scan.
+ *
+ * The readers are configured once with {@link MultiFormatReader#setHints} and
+ * only reconfigured when the selection or the hints change, the hints passed to
+ * {@link #decode(BinaryBitmap, Map)} are ignored. This also makes it a cheap
+ * delegate for the multiple barcode readers, which call it for every
+ * sub-image. Each decode thread owns its reader.
+ */
+final class FormatSelectingReader implements Reader {
+
+    private static final Set<BarcodeFormat> TWO_D_FORMATS = EnumSet.of(BarcodeFormat.QR_CODE,
+            BarcodeFormat.DATA_MATRIX, BarcodeFormat.AZTEC, BarcodeFormat.PDF_417, BarcodeFormat.MAXICODE);
+
+    private Map<DecodeHintType, Object> _hints;
+    private final FormatStatistics _statistics;
+    private final MultiFormatReader _full = new MultiFormatReader();
+    private final List<MultiFormatReader> _selected = new ArrayList<MultiFormatReader>();
+    private int _selectedCount;
+    private int _selectionVersion = -1;
+    private boolean _fullPass = true;
+
+    FormatSelectingReader(Map<DecodeHintType, Object> hints, FormatStatistics statistics) {
+        _statistics = statistics;
+        setHints(hints);
+    }
+
+    /**
+     * Reconfigures the readers in place, the selected ones on the next
+     * {@link #prepare}.
+     */
+    void setHints(Map<DecodeHintType, Object> hints) {
+        _hints = hints;
+        _full.setHints(hints);
+        _selectedCount = 0;
+        _selectionVersion = -1;
+    }
+
+    /**
+     * Decides whether the next frame is decoded with the selected formats or
+     * with all of them. Called once per frame, before the first decode.
+     */
+    void prepare() {
+        _fullPass = _statistics.takeFullPass();
+        if (_fullPass) return;
+        int version = _statistics.version();
+        if (version != _selectionVersion) {
+            select(_statistics.selection());
+            _selectionVersion = version;
+        }
+        if (_selectedCount == 0) _fullPass = true;
+    }
+
+    void record(Result result) {
+        _statistics.record(result.getBarcodeFormat());
+    }
+
+    public Result decode(BinaryBitmap image) throws NotFoundException {
+        if (_fullPass) return _full.decodeWithState(image);
+        for (int i = 0; i < _selectedCount; i++)
+            try {
+                return _selected.get(i).decodeWithState(image);
+            } catch (NotFoundException e) {
+                if (i == _selectedCount - 1) throw e;
+            }
+        throw NotFoundException.getNotFoundInstance();
+    }
+
+    public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints) throws NotFoundException {
+        return decode(image);
+    }
+
+    public void reset() {
+        _full.reset();
+        for (int i = 0; i < _selectedCount; i++) _selected.get(i).reset();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void select(BarcodeFormat[] selection) {
+        Object possible = _hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        Set<BarcodeFormat> enabled = possible instanceof Set ? (Set<BarcodeFormat>) possible : null;
+        List<Set<BarcodeFormat>> groups = new ArrayList<Set<BarcodeFormat>>();
+        Set<BarcodeFormat> oneD = null;
+        for (BarcodeFormat format : selection) {
+            if (enabled != null && !enabled.isEmpty() && !enabled.contains(format)) continue;
+            if (TWO_D_FORMATS.contains(format)) groups.add(EnumSet.of(format));
+            else if (oneD == null) groups.add(oneD = EnumSet.of(format));
+            else oneD.add(format);
+        }
+        for (int i = 0; i < groups.size(); i++) {
+            if (i == _selected.size()) _selected.add(new MultiFormatReader());
+            Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(_hints);
+            hints.put(DecodeHintType.POSSIBLE_FORMATS, groups.get(i));
+            _selected.get(i).setHints(hints);
+        }
+        _selectedCount = groups.size();
+    }
+
+}
@@ -0,0 +1,107 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Counts which formats are actually decoded and derives the selection of
+ * formats tried first: the most frequent ones, in order of frequency, which
+ * together account for {@link #COVERAGE} of the recent hits. Older hits decay
+ * so the selection follows a change of the scanned goods. Every
+ * {@link #FULL_PASS_INTERVAL}th frame still gets a pass over all formats so
+ * rare ones are never starved. Shared by all decode threads.
+ */
+public final class FormatStatistics {
+
+    private static final int FULL_PASS_INTERVAL = 8;
+    private static final int MIN_HITS = 3;
+    private static final float COVERAGE = 0.95f;
+    private static final float DECAY = 0.98f;
+
+    private final BarcodeFormat[] _formats = BarcodeFormat.values();
+    private final long[] _hits = new long[_formats.length];
+    private final float[] _weights = new float[_formats.length];
+    private final Integer[] _byWeight = new Integer[_formats.length];
+    private final Comparator<Integer> _heaviestFirst = new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+            return Float.compare(_weights[b], _weights[a]);
+        }
+    };
+    private BarcodeFormat[] _selection = new BarcodeFormat[0];
+    private long _totalHits;
+    private int _version;
+    private int _frames;
+    private boolean _selective = true;
+
+    synchronized void record(BarcodeFormat format) {
+        for (int i = 0; i < _weights.length; i++) _weights[i] *= DECAY;
+        _weights[format.ordinal()] += 1;
+        _hits[format.ordinal()]++;
+        _totalHits++;
+        updateSelection();
+    }
+
+    /**
+     * @return true if the next frame should try every enabled format.
+     */
+    synchronized boolean takeFullPass() {
+        if (!_selective || _totalHits < MIN_HITS) return true;
+        return ++_frames % FULL_PASS_INTERVAL == 0;
+    }
+
+    /**
+     * @return A number which changes whenever the selection does.
+     */
+    synchronized int version() {
+        return _version;
+    }
+
+    synchronized BarcodeFormat[] selection() {
+        return _selection;
+    }
+
+    public synchronized long getHits(BarcodeFormat format) {
+        return _hits[format.ordinal()];
+    }
+
+    /**
+     * @return The formats currently tried first, most frequent first.
+     */
+    public synchronized List<BarcodeFormat> getSelection() {
+        return new ArrayList<BarcodeFormat>(Arrays.asList(_selection));
+    }
+
+    public synchronized boolean isSelective() {
+        return _selective;
+    }
+
+    /**
+     * @param selective false to try every enabled format on every frame.
+     */
+    public synchronized void setSelective(boolean selective) {
+        _selective = selective;
+    }
+
+    private void updateSelection() {
+        float total = 0;
+        for (int i = 0; i < _weights.length; i++) {
+            _byWeight[i] = i;
+            total += _weights[i];
+        }
+        Arrays.sort(_byWeight, _heaviestFirst);
+        int count = 0;
+        for (float covered = 0; count < _byWeight.length && covered < COVERAGE * total; count++)
+            covered += _weights[_byWeight[count]];
+        BarcodeFormat[] selection = new BarcodeFormat[count];
+        for (int i = 0; i < count; i++) selection[i] = _formats[_byWeight[i]];
+        if (!Arrays.equals(selection, _selection)) {
+            _selection = selection;
+            _version++;
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.multi.MultipleBarcodeReader;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The frame to result path of the scanner with no Android dependencies, so the
+ * exact code that ships can be profiled and load tested on a plain JVM. A frame
+ * passes the {@link FrameQualityGate}, is decoded on the coarse level of the
+ * {@link DecodePyramid} and then at full resolution, each level trying the
+ * binarizers planned by the {@link BinarizerStrategy} with the formats selected
+ * by the {@link FormatStatistics}. Those four may be shared between decoders.
+ *
+ * A decoder is not thread safe, each decode thread owns one. Sources built by
+ * {@link #decode(byte[], int, int, int, int, int, int)} crop into the
+ * {@link LuminanceBufferPool} of the calling thread.
+ */
+public final class FrameDecoder {
+
+    private final FormatSelectingReader _reader;
+    private MultipleBarcodeReader _multipleReader;
+    private final CropResultPointCallback _pointCallback;
+    private final FrameQualityGate _qualityGate;
+    private final BinarizerStrategy _binarizerStrategy;
+    private final DecodePyramid _pyramid;
+    private final BinarizerStrategy.Kind[] _binarizerOrder = new BinarizerStrategy.Kind[2];
+    private int _binarizerCount;
+    private final DecodeOutcome _outcome = new DecodeOutcome();
+
+    /**
+     * A decoder of single codes with statistics of its own and no quality gate.
+     */
+    public FrameDecoder(Map<DecodeHintType, ?> hints) {
+        this(hints, false, null, null, new BinarizerStrategy(), new FormatStatistics(), new DecodePyramid());
+    }
+
+    /**
+     * @param hints          Formats and character set, a result point callback
+     *                       among them is replaced by pointCallback.
+     * @param multiple       Whether to find every code in a frame.
+     * @param pointCallback  Receives candidate points in the caller's
+     *                       coordinates, may be null.
+     * @param qualityGate    null to decode every frame.
+     */
+    public FrameDecoder(Map<DecodeHintType, ?> hints, boolean multiple, ResultPointCallback pointCallback,
+                        FrameQualityGate qualityGate, BinarizerStrategy binarizerStrategy,
+                        FormatStatistics formatStatistics, DecodePyramid pyramid) {
+        _pointCallback = new CropResultPointCallback(pointCallback);
+        _reader = new FormatSelectingReader(readerHints(hints), formatStatistics);
+        setDecodingMultiple(multiple);
+        _qualityGate = qualityGate;
+        _binarizerStrategy = binarizerStrategy;
+        _pyramid = pyramid;
+    }
+
+    /**
+     * Decodes the crop of a Y plane. Result points are in frame coordinates.
+     */
+    public DecodeOutcome decode(byte[] yPlane, int dataWidth, int dataHeight, int left, int top, int width,
+                                int height) {
+        return decode(new PlanarYUVLuminanceSource(yPlane, dataWidth, dataHeight, left, top, width, height,
+                false, LuminanceBufferPool.get()), left, top);
+    }
+
+    /**
+     * Decodes the given crop of a luminance plane in a buffer, read in place
+     * with its row stride.
+     *
+     * @return The outcome, valid until the next decode.
+     */
+    public DecodeOutcome decode(ByteBuffer yPlane, int rowStride, int dataWidth, int dataHeight, int left,
+                                int top, int width, int height) {
+        return decode(new ByteBufferLuminanceSource(yPlane, rowStride, dataWidth, dataHeight, left, top, width,
+                height, LuminanceBufferPool.get()), left, top);
+    }
+
+    /**
+     * @param offsetX Left of the source in the coordinates result points are
+     *                reported in.
+     * @param offsetY Top of the source in the same coordinates.
+     * @return The outcome, valid until the next decode.
+     */
+    public DecodeOutcome decode(FrameLuminanceSource source, int offsetX, int offsetY) {
+        DecodeOutcome outcome = _outcome;
+        outcome.reset();
+        if (_qualityGate != null) {
+            long start = System.nanoTime();
+            boolean accepted = _qualityGate.accept(source);
+            outcome.setQualityNanos(System.nanoTime() - start);
+            if (!accepted) {
+                outcome.setStatus(DecodeOutcome.Status.REJECTED);
+                return outcome;
+            }
+        }
+        _pointCallback.setOffset(offsetX, offsetY);
+        _pointCallback.setMirrorWidth(source.isMirrored() ? source.getWidth() : 0);
+        _reader.prepare();
+        // Planned once per frame, both pyramid levels try the same binarizers
+        _binarizerCount = _binarizerStrategy.plan(_binarizerOrder);
+        try {
+            decodePyramid(source, outcome);
+        } catch (NotFoundException e) {
+            outcome.setStatus(DecodeOutcome.Status.NOT_FOUND);
+        } finally {
+            _reader.reset();
+        }
+        return outcome;
+    }
+
+    public boolean isDecodingMultiple() {
+        return _multipleReader != null;
+    }
+
+    /**
+     * Switches between finding one code and every code in a frame, keeping
+     * the readers.
+     */
+    public void setDecodingMultiple(boolean multiple) {
+        if (multiple == isDecodingMultiple()) return;
+        _multipleReader = multiple ? new GenericMultipleBarcodeReader(_reader) : null;
+    }
+
+    /**
+     * Replaces the formats and character set, reconfiguring the readers in
+     * place instead of building new ones.
+     *
+     * @param hints Like those given to the constructor.
+     */
+    public void setHints(Map<DecodeHintType, ?> hints) {
+        _reader.setHints(readerHints(hints));
+    }
+
+    private Map<DecodeHintType, Object> readerHints(Map<DecodeHintType, ?> hints) {
+        Map<DecodeHintType, Object> readerHints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        readerHints.putAll(hints);
+        readerHints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, _pointCallback);
+        return readerHints;
+    }
+
+    /**
+     * Decodes a downsampled view of the source first and the source itself only
+     * if that finds nothing. Result points are moved to the caller's
+     * coordinates.
+     */
+    private void decodePyramid(FrameLuminanceSource source, DecodeOutcome outcome) throws NotFoundException {
+        int factor = _pyramid.coarseFactor(source.getWidth(), source.getHeight());
+        if (factor > 1) {
+            _pointCallback.setScale(factor);
+            long start = System.nanoTime();
+            try {
+                Result[] rawResults = decode(source.downsample(factor));
+                outcome.setCoarseNanos(System.nanoTime() - start);
+                _pyramid.record(DecodePyramid.COARSE, true, outcome.getCoarseNanos());
+                for (Result rawResult : rawResults) _pointCallback.toFrame(rawResult.getResultPoints());
+                outcome.found(rawResults, DecodePyramid.COARSE);
+                return;
+            } catch (NotFoundException e) {
+                outcome.setCoarseNanos(System.nanoTime() - start);
+                _pyramid.record(DecodePyramid.COARSE, false, outcome.getCoarseNanos());
+            } finally {
+                _pointCallback.setScale(1);
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            Result[] rawResults = decode(source);
+            outcome.setFullNanos(System.nanoTime() - start);
+            _pyramid.record(DecodePyramid.FULL, true, outcome.getFullNanos());
+            for (Result rawResult : rawResults) _pointCallback.toFrame(rawResult.getResultPoints());
+            outcome.found(rawResults, DecodePyramid.FULL);
+        } catch (NotFoundException e) {
+            outcome.setFullNanos(System.nanoTime() - start);
+            _pyramid.record(DecodePyramid.FULL, false, outcome.getFullNanos());
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the source through the binarizers planned for the frame until one
+     * of them finds something.
+     */
+    private Result[] decode(LuminanceSource source) throws NotFoundException {
+        int count = _binarizerCount;
+        for (int i = 0; ; i++) {
+            BinarizerStrategy.Kind kind = _binarizerOrder[i];
+            long start = System.nanoTime();
+            try {
+                BinaryBitmap bitmap = new BinaryBitmap(BinarizerStrategy.create(kind, source));
+                Result[] rawResults = _multipleReader == null ? new Result[]{_reader.decode(bitmap)}
+                        : _multipleReader.decodeMultiple(bitmap);
+                _binarizerStrategy.record(kind, true, System.nanoTime() - start);
+                for (Result rawResult : rawResults) _reader.record(rawResult);
+                return rawResults;
+            } catch (NotFoundException e) {
+                _binarizerStrategy.record(kind, false, System.nanoTime() - start);
+                if (i == count - 1) throw e;
+            }
+        }
+    }
+
+}
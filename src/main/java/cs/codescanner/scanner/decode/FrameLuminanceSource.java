@@ -0,0 +1,44 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * A LuminanceSource reading straight from a camera frame, which can give a
+ * downsampled or cropped view of itself without copying the frame. Views keep
+ * the rotation and mirroring of their source.
+ */
+public abstract class FrameLuminanceSource extends LuminanceSource {
+
+    protected FrameLuminanceSource(int width, int height) {
+        super(width, height);
+    }
+
+    /**
+     * @return A view of this source taking every factor-th pixel in both
+     * directions, sharing the underlying frame.
+     */
+    public abstract FrameLuminanceSource downsample(int factor);
+
+    /**
+     * @return A view of the given rectangle of this source, in its
+     * coordinates, sharing the underlying frame.
+     */
+    @Override public abstract FrameLuminanceSource crop(int left, int top, int width, int height);
+
+    /**
+     * @return Whether the source reads the frame mirrored horizontally, points
+     * found in it are then mirrored against the frame.
+     */
+    public abstract boolean isMirrored();
+
+    @Override public boolean isCropSupported() {
+        return true;
+    }
+
+    protected void checkCrop(int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || width < 0 || height < 0 || left + width > getWidth()
+                || top + height > getHeight())
+            throw new IllegalArgumentException("Crop rectangle does not fit within the source.");
+    }
+
+}
@@ -0,0 +1,135 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.LuminanceSource;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cheap check run on the luminance of the crop before a frame is binarized.
+ * It reads a coarse grid of rows and measures the contrast range and the
+ * mean absolute gradient towards the right and lower neighbour of each sample,
+ * which drops sharply for motion blur and frames taken mid-autofocus. Frames
+ * below either threshold are rejected without decoding.
+ *
+ * Every evaluated frame is counted into contrast and sharpness histograms so
+ * the thresholds can be tuned from field data. Shared by all decode threads.
+ */
+public final class FrameQualityGate {
+
+    public static final int HISTOGRAM_BUCKETS = 16;
+    public static final int CONTRAST_BUCKET_WIDTH = 256 / HISTOGRAM_BUCKETS;
+    public static final int SHARPNESS_BUCKET_WIDTH = 2;
+    private static final int DEFAULT_MIN_CONTRAST = 24;
+    private static final int GRID = 32;
+
+    private final ThreadLocal<byte[][]> _rows = new ThreadLocal<byte[][]>() {
+        @Override protected byte[][] initialValue() {
+            return new byte[2][];
+        }
+    };
+    private final AtomicLong _evaluated = new AtomicLong();
+    private final AtomicLong _rejectedForContrast = new AtomicLong();
+    private final AtomicLong _rejectedForSharpness = new AtomicLong();
+    private final AtomicLongArray _contrastHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLongArray _sharpnessHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private volatile int _minContrast = DEFAULT_MIN_CONTRAST;
+    private volatile float _minSharpness;
+
+    /**
+     * @return true if the source is worth decoding.
+     */
+    public boolean accept(LuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int stepX = Math.max(1, (width - 1) / GRID);
+        int stepY = Math.max(1, (height - 1) / GRID);
+        byte[][] rows = _rows.get();
+        if (rows[0] == null || rows[0].length < width) {
+            rows[0] = new byte[width];
+            rows[1] = new byte[width];
+        }
+        int min = 255;
+        int max = 0;
+        long gradient = 0;
+        int samples = 0;
+        for (int y = 0; y < height - 1; y += stepY) {
+            byte[] row = source.getRow(y, rows[0]);
+            byte[] below = source.getRow(y + 1, rows[1]);
+            for (int x = 0; x < width - 1; x += stepX) {
+                int pixel = row[x] & 0xff;
+                if (pixel < min) min = pixel;
+                if (pixel > max) max = pixel;
+                gradient += Math.abs(pixel - (row[x + 1] & 0xff)) + Math.abs(pixel - (below[x] & 0xff));
+                samples++;
+            }
+        }
+        int contrast = Math.max(0, max - min);
+        float sharpness = samples == 0 ? 0 : (float) gradient / samples;
+
+        _evaluated.incrementAndGet();
+        _contrastHistogram.incrementAndGet(Math.min(contrast / CONTRAST_BUCKET_WIDTH, HISTOGRAM_BUCKETS - 1));
+        _sharpnessHistogram.incrementAndGet(Math.min((int) sharpness / SHARPNESS_BUCKET_WIDTH,
+                HISTOGRAM_BUCKETS - 1));
+        if (contrast < _minContrast) {
+            _rejectedForContrast.incrementAndGet();
+            return false;
+        }
+        if (sharpness < _minSharpness) {
+            _rejectedForSharpness.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the number of evaluated frames per contrast range, bucket i counts
+     * ranges from i * CONTRAST_BUCKET_WIDTH, the last one everything above.
+     */
+    public void getContrastHistogram(long[] into) {
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) into[i] = _contrastHistogram.get(i);
+    }
+
+    public long getEvaluatedFrames() {
+        return _evaluated.get();
+    }
+
+    public long getRejectedForContrast() {
+        return _rejectedForContrast.get();
+    }
+
+    public long getRejectedForSharpness() {
+        return _rejectedForSharpness.get();
+    }
+
+    /**
+     * Copies the number of evaluated frames per mean gradient, bucket i counts
+     * gradients from i * SHARPNESS_BUCKET_WIDTH, the last one everything above.
+     */
+    public void getSharpnessHistogram(long[] into) {
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) into[i] = _sharpnessHistogram.get(i);
+    }
+
+    public void reset() {
+        _evaluated.set(0);
+        _rejectedForContrast.set(0);
+        _rejectedForSharpness.set(0);
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            _contrastHistogram.set(i, 0);
+            _sharpnessHistogram.set(i, 0);
+        }
+    }
+
+    /**
+     * @param minContrast  Minimum difference between the darkest and brightest
+     *                     sample, 0 accepts any contrast. Defaults to
+     *                     {@value #DEFAULT_MIN_CONTRAST}.
+     * @param minSharpness Minimum mean absolute gradient per sample, 0 (the
+     *                     default) accepts any sharpness.
+     */
+    public void setThresholds(int minContrast, float minSharpness) {
+        _minContrast = minContrast;
+        _minSharpness = minSharpness;
+    }
+
+}
@@ -0,0 +1,223 @@
+package cs.codescanner.scanner.decode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Appends preview frames to a memory-mapped capture file, to be fed through
+ * the decoder again by {@link FrameReplayer}. Only the Y plane of a frame is
+ * kept as the sensor delivered it, with its size, the framing rect it was
+ * decoded in, the rotation and mirroring the decoder applied and the time it
+ * arrived.
+ *
+ * {@link #record} runs on the camera thread and never blocks: it copies the Y
+ * plane into one of a few preallocated slots and queues it for the writer
+ * thread. When every slot is still queued, or the file is full, the frame is
+ * dropped and counted instead.
+ *
+ * File layout, big endian: {@link #MAGIC}, {@link #VERSION}, then per frame
+ * width, height, framing rect left, top, right and bottom in rotated
+ * coordinates, clockwise rotation in degrees and 1 if mirrored else 0 as ints,
+ * arrival time in nanoseconds as a long and width * height bytes of unrotated
+ * luminance. The file is
+ * truncated to its content on {@link #close}; a file left behind by a crash
+ * ends with a zero width.
+ */
+public final class FrameRecorder {
+
+    static final int MAGIC = 0x43534643; // "CSFC"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    static final int FRAME_HEADER_SIZE = 8 * 4 + 8;
+    private static final int DEFAULT_SLOTS = 4;
+
+    private static final class Slot {
+        byte[] data;
+        int width;
+        int height;
+        int left;
+        int top;
+        int right;
+        int bottom;
+        int rotation;
+        boolean mirrored;
+        long timestampNanos;
+    }
+
+    private static final Slot END = new Slot();
+
+    private final RandomAccessFile _file;
+    private final MappedByteBuffer _buffer;
+    private final BlockingQueue<Slot> _free;
+    private final BlockingQueue<Slot> _queued;
+    private final Thread _writer;
+    private final AtomicInteger _recorded = new AtomicInteger();
+    private final AtomicInteger _dropped = new AtomicInteger();
+    private volatile boolean _full;
+    private boolean _closed;
+
+    /**
+     * @param maxBytes Size of the mapping, frames beyond it are dropped.
+     */
+    public FrameRecorder(File file, long maxBytes) throws IOException {
+        this(file, maxBytes, DEFAULT_SLOTS);
+    }
+
+    /**
+     * @param slots Frames that may wait for the writer before more are dropped.
+     */
+    public FrameRecorder(File file, long maxBytes, int slots) throws IOException {
+        _file = new RandomAccessFile(file, "rw");
+        _file.setLength(0);
+        _buffer = _file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+        _buffer.putInt(MAGIC).putInt(VERSION);
+        _free = new ArrayBlockingQueue<Slot>(slots);
+        _queued = new ArrayBlockingQueue<Slot>(slots + 1);
+        for (int i = 0; i < slots; i++) _free.add(new Slot());
+        _writer = new Thread("FrameRecorder") {
+            @Override public void run() {
+                write();
+            }
+        };
+        _writer.start();
+    }
+
+    /**
+     * Copies the Y plane of the frame for writing, without waiting for the
+     * writer.
+     *
+     * @param left     Framing rect in the frame rotated by rotation.
+     * @param rotation Clockwise rotation of the frame in degrees, 0, 90, 180 or
+     *                 270.
+     * @param mirrored Whether the rotated crop is mirrored.
+     * @return false if the frame was dropped.
+     */
+    public boolean record(byte[] frame, int width, int height, int left, int top, int right, int bottom,
+                          int rotation, boolean mirrored) {
+        long now = System.nanoTime();
+        Slot slot = acquire(width * height);
+        if (slot == null) return false;
+        System.arraycopy(frame, 0, slot.data, 0, width * height);
+        return queue(slot, now, width, height, left, top, right, bottom, rotation, mirrored);
+    }
+
+    /**
+     * Like {@link #record(byte[], int, int, int, int, int, int, int, boolean)}
+     * for a Y plane in a buffer with padded rows, stored packed.
+     *
+     * @param rowStride Bytes from the start of one row to the next.
+     */
+    public boolean record(ByteBuffer plane, int rowStride, int width, int height, int left, int top,
+                          int right, int bottom, int rotation, boolean mirrored) {
+        long now = System.nanoTime();
+        Slot slot = acquire(width * height);
+        if (slot == null) return false;
+        ByteBuffer rows = plane.duplicate();
+        for (int y = 0; y < height; y++) {
+            rows.position(y * rowStride);
+            rows.get(slot.data, y * width, width);
+        }
+        return queue(slot, now, width, height, left, top, right, bottom, rotation, mirrored);
+    }
+
+    /**
+     * Writes the queued frames, stops the writer and truncates the file to
+     * what was recorded.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (_closed) return;
+            _closed = true;
+            _full = true;
+            // Nothing is queued after this, see queue
+            _queued.add(END);
+        }
+        try {
+            _writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        _buffer.force();
+        _file.setLength(_buffer.position());
+        _file.close();
+    }
+
+    public int getDroppedFrames() {
+        return _dropped.get();
+    }
+
+    public int getRecordedFrames() {
+        return _recorded.get();
+    }
+
+    private Slot acquire(int area) {
+        Slot slot = _full ? null : _free.poll();
+        if (slot == null) {
+            _dropped.incrementAndGet();
+            return null;
+        }
+        if (slot.data == null || slot.data.length < area) slot.data = new byte[area];
+        return slot;
+    }
+
+    /**
+     * @return false if the recorder was closed since the slot was acquired,
+     *         the frame is then dropped.
+     */
+    private boolean queue(Slot slot, long timestampNanos, int width, int height, int left, int top, int right,
+                          int bottom, int rotation, boolean mirrored) {
+        slot.width = width;
+        slot.height = height;
+        slot.left = left;
+        slot.top = top;
+        slot.right = right;
+        slot.bottom = bottom;
+        slot.rotation = rotation;
+        slot.mirrored = mirrored;
+        slot.timestampNanos = timestampNanos;
+        // Held only to enqueue, the writer is never waited for on the camera thread
+        synchronized (this) {
+            if (!_closed) {
+                _queued.add(slot);
+                return true;
+            }
+        }
+        _free.add(slot);
+        _dropped.incrementAndGet();
+        return false;
+    }
+
+    private void write() {
+        MappedByteBuffer buffer = _buffer;
+        while (true) {
+            Slot slot;
+            try {
+                slot = _queued.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (slot == END) return;
+            int area = slot.width * slot.height;
+            if (buffer.remaining() < FRAME_HEADER_SIZE + area) {
+                _full = true;
+                _dropped.incrementAndGet();
+            } else {
+                buffer.putInt(slot.width).putInt(slot.height);
+                buffer.putInt(slot.left).putInt(slot.top).putInt(slot.right).putInt(slot.bottom);
+                buffer.putInt(slot.rotation).putInt(slot.mirrored ? 1 : 0);
+                buffer.putLong(slot.timestampNanos);
+                buffer.put(slot.data, 0, area);
+                _recorded.incrementAndGet();
+            }
+            _free.add(slot);
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package cs.codescanner.scanner.decode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Feeds a capture file written by {@link FrameRecorder} through a
+ * {@link FrameDecoder}, each frame cropped to the framing rect it was recorded
+ * with, so a capture from the field becomes a repeatable performance test.
+ * Frames are rotated and mirrored as the live decoder saw them. Unrotated
+ * frames are decoded straight from the mapped file, rotated ones are copied
+ * out once since {@link RotatedYUVLuminanceSource} walks an array. Runs on a
+ * plain JVM as well as on a device.
+ */
+public final class FrameReplayer {
+
+    public interface Listener {
+
+        /**
+         * @param index          Position of the frame in the capture.
+         * @param recordedNanos  Arrival time of the frame relative to the first
+         *                       one.
+         * @param decodeNanos    Wall time of the decode.
+         * @param outcome        Valid until this returns.
+         */
+        void onFrame(int index, long recordedNanos, long decodeNanos, DecodeOutcome outcome);
+
+    }
+
+    private final MappedByteBuffer _buffer;
+    private byte[] _rotated;
+
+    public FrameReplayer(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            _buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        } finally {
+            // The mapping stays valid after the channel is closed
+            input.close();
+        }
+        if (_buffer.remaining() < FrameRecorder.HEADER_SIZE || _buffer.getInt() != FrameRecorder.MAGIC)
+            throw new IOException("Not a capture file: " + file);
+        int version = _buffer.getInt();
+        if (version != FrameRecorder.VERSION) throw new IOException("Unsupported capture version: " + version);
+    }
+
+    /**
+     * Decodes every frame of the capture on the calling thread.
+     *
+     * @param recordedSpeed true to wait between frames as long as they were
+     *                      apart when recorded, false to decode them back to
+     *                      back.
+     * @return The number of frames replayed.
+     */
+    public int replay(FrameDecoder decoder, boolean recordedSpeed, Listener listener)
+            throws InterruptedException {
+        MappedByteBuffer buffer = _buffer;
+        buffer.position(FrameRecorder.HEADER_SIZE);
+        long firstTimestamp = 0;
+        long start = System.nanoTime();
+        int index = 0;
+        while (buffer.remaining() >= FrameRecorder.FRAME_HEADER_SIZE) {
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            // A file left by a crash is zero past the last complete frame
+            if (width <= 0 || height <= 0 || buffer.remaining() < FrameRecorder.FRAME_HEADER_SIZE - 8
+                    + width * height) break;
+            int left = buffer.getInt();
+            int top = buffer.getInt();
+            int right = buffer.getInt();
+            int bottom = buffer.getInt();
+            int rotation = buffer.getInt();
+            boolean mirrored = buffer.getInt() != 0;
+            long timestamp = buffer.getLong();
+            int frameStart = buffer.position();
+            buffer.position(frameStart + width * height);
+
+            if (index == 0) firstTimestamp = timestamp;
+            long recordedNanos = timestamp - firstTimestamp;
+            if (recordedSpeed) {
+                long waitNanos = recordedNanos - (System.nanoTime() - start);
+                if (waitNanos > 0) Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            }
+            long decodeStart = System.nanoTime();
+            FrameLuminanceSource source = source(buffer, frameStart, width, height, left, top, right - left,
+                    bottom - top, rotation, mirrored);
+            DecodeOutcome outcome = decoder.decode(source, left, top);
+            listener.onFrame(index++, recordedNanos, System.nanoTime() - decodeStart, outcome);
+        }
+        return index;
+    }
+
+    /**
+     * @return The source the live decoder built for the frame, the crop in
+     *         rotated coordinates.
+     */
+    private FrameLuminanceSource source(MappedByteBuffer buffer, int start, int width, int height, int left,
+                                        int top, int cropWidth, int cropHeight, int rotation, boolean mirrored) {
+        ByteBuffer frame = buffer.duplicate();
+        frame.position(start);
+        frame.limit(start + width * height);
+        if (rotation == 0) return new ByteBufferLuminanceSource(frame.slice(), width, 1, width, height, left, top,
+                cropWidth, cropHeight, mirrored, LuminanceBufferPool.get());
+        if (_rotated == null || _rotated.length < width * height) _rotated = new byte[width * height];
+        frame.get(_rotated, 0, width * height);
+        return new RotatedYUVLuminanceSource(_rotated, width, height, rotation, left, top, cropWidth, cropHeight,
+                mirrored, LuminanceBufferPool.get());
+    }
+
+}
@@ -0,0 +1,22 @@
+package cs.codescanner.scanner.decode;
+
+/**
+ * Turns rows of luminance into packed pixels, as the result thumbnails are
+ * rendered. Kept apart from the Android bitmap code so the pixel loop can be
+ * measured on its own.
+ */
+public final class GreyscalePixels {
+
+    /**
+     * @param alphaOnly true to store the grey level as alpha, for ALPHA_8
+     *                  bitmaps, false for opaque ARGB grey.
+     */
+    public static void toPixels(byte[] luminance, int[] pixels, int width, boolean alphaOnly) {
+        if (alphaOnly) for (int x = 0; x < width; x++) pixels[x] = (luminance[x] & 0xff) << 24;
+        else for (int x = 0; x < width; x++) pixels[x] = 0xFF000000 | (luminance[x] & 0xff) * 0x00010101;
+    }
+
+    private GreyscalePixels() {
+    }
+
+}
@@ -0,0 +1,46 @@
+package cs.codescanner.scanner.decode;
+
+/**
+ * Per-thread crop matrix and row buffers for the {@link FrameLuminanceSource}s.
+ * The buffers are sized to the largest crop seen so far and only reallocated
+ * when a larger one comes along, so a decode thread reuses them for every
+ * frame whether it decodes the framing rect, a region of interest inside it or
+ * a downsampled view. Callers of getMatrix and getRow ignore the length of the
+ * arrays they get back.
+ *
+ * The buffers are only valid until the owning thread builds the next source,
+ * which holds for the decoder as it is done with a frame before taking the
+ * next one.
+ */
+public final class LuminanceBufferPool {
+
+    private static final ThreadLocal<LuminanceBufferPool> POOLS = new ThreadLocal<LuminanceBufferPool>() {
+        @Override protected LuminanceBufferPool initialValue() {
+            return new LuminanceBufferPool();
+        }
+    };
+
+    /**
+     * @return The pool of the calling thread.
+     */
+    public static LuminanceBufferPool get() {
+        return POOLS.get();
+    }
+
+    private byte[] _matrix;
+    private byte[] _row;
+
+    private LuminanceBufferPool() {
+    }
+
+    byte[] matrix(int area) {
+        if (_matrix == null || _matrix.length < area) _matrix = new byte[area];
+        return _matrix;
+    }
+
+    byte[] row(int width) {
+        if (_row == null || _row.length < width) _row = new byte[width];
+        return _row;
+    }
+
+}
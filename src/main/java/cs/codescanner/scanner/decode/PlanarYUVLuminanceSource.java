@@ -0,0 +1,145 @@
+package cs.codescanner.scanner.decode;
+
+/**
+ * This object extends LuminanceSource around an array of YUV data returned from
+ * the camera driver, with the option to crop to a rectangle within the full
+ * data. This can be used to exclude superfluous pixels around the perimeter and
+ * speed up decoding.
+ * 
+ * It works for any pixel format where the Y channel is planar and appears
+ * first, including YCbCr_420_SP and YCbCr_422_SP.
+ * 
+ * Given a {@link LuminanceBufferPool} the cropped matrix and rows are served
+ * from the pool instead of being allocated on every call.
+ * 
+ * {@link #downsample} gives a decimated view of the same crop which reads every
+ * n-th pixel of the underlying data and {@link #crop} a view of part of it,
+ * without copying the frame. Likewise reverseHorizontal mirrors the crop while
+ * rows are read, the frame itself is never modified.
+ * 
+ * @author dswitkin@google.com (Daniel Switkin)
+ */
+public final class PlanarYUVLuminanceSource extends FrameLuminanceSource {
+
+	private final byte[] yuvData;
+	private final int dataWidth;
+	private final int dataHeight;
+	private final int left;
+	private final int top;
+	private final int step;
+	private final boolean reverseHorizontal;
+	private final LuminanceBufferPool buffers;
+
+	public PlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int left, int top,
+			int width, int height, boolean reverseHorizontal) {
+		this(yuvData, dataWidth, dataHeight, left, top, width, height, reverseHorizontal, null);
+	}
+
+	public PlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int left, int top,
+			int width, int height, boolean reverseHorizontal, LuminanceBufferPool buffers) {
+		super(width, height);
+
+		if (left + width > dataWidth || top + height > dataHeight)
+			throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+
+		this.yuvData = yuvData;
+		this.dataWidth = dataWidth;
+		this.dataHeight = dataHeight;
+		this.step = 1;
+		this.reverseHorizontal = reverseHorizontal;
+		this.buffers = buffers;
+		// When mirrored, left is the rightmost column of the crop and rows are
+		// read backwards from there
+		this.left = reverseHorizontal ? left + width - 1 : left;
+		this.top = top;
+	}
+
+	/**
+	 * A view of the source with its origin at left and top of the data.
+	 */
+	private PlanarYUVLuminanceSource(PlanarYUVLuminanceSource source, int left, int top, int width,
+			int height, int step) {
+		super(width, height);
+		yuvData = source.yuvData;
+		dataWidth = source.dataWidth;
+		dataHeight = source.dataHeight;
+		this.left = left;
+		this.top = top;
+		this.step = step;
+		reverseHorizontal = source.reverseHorizontal;
+		buffers = source.buffers;
+	}
+
+	@Override public PlanarYUVLuminanceSource downsample(int factor) {
+		if (factor == 1) return this;
+		return new PlanarYUVLuminanceSource(this, left, top, getWidth() / factor, getHeight() / factor,
+				step * factor);
+	}
+
+	@Override public PlanarYUVLuminanceSource crop(int left, int top, int width, int height) {
+		checkCrop(left, top, width, height);
+		int dx = reverseHorizontal ? -step : step;
+		return new PlanarYUVLuminanceSource(this, this.left + left * dx, this.top + top * step, width,
+				height, step);
+	}
+
+	/**
+	 * @return How many pixels of the underlying data one pixel of this source
+	 *         spans in each direction, 1 unless downsampled.
+	 */
+	public int getStep() {
+		return step;
+	}
+
+	@Override public boolean isMirrored() {
+		return reverseHorizontal;
+	}
+
+	@Override public byte[] getMatrix() {
+		int width = getWidth();
+		int height = getHeight();
+		boolean copyRows = step == 1 && !reverseHorizontal;
+
+		// If the caller asks for the entire underlying image, save the copy and
+		// give them the
+		// original data. The docs specifically warn that result.length must be
+		// ignored.
+		if (copyRows && width == dataWidth && height == dataHeight) return yuvData;
+
+		int area = width * height;
+		byte[] matrix = buffers == null ? new byte[area] : buffers.matrix(area);
+		int inputOffset = top * dataWidth + left;
+
+		// If the width matches the full width of the underlying data, perform a
+		// single copy.
+		if (copyRows && width == dataWidth) {
+			System.arraycopy(yuvData, inputOffset, matrix, 0, area);
+			return matrix;
+		}
+
+		// Otherwise copy one cropped row at a time.
+		byte[] yuv = yuvData;
+		int dx = reverseHorizontal ? -step : step;
+		for (int y = 0; y < height; y++) {
+			int outputOffset = y * width;
+			if (copyRows) System.arraycopy(yuv, inputOffset, matrix, outputOffset, width);
+			else for (int x = 0, input = inputOffset; x < width; x++, input += dx)
+				matrix[outputOffset + x] = yuv[input];
+			inputOffset += dataWidth * step;
+		}
+		return matrix;
+	}
+
+	@Override public byte[] getRow(int y, byte[] row) {
+		if (y < 0 || y >= getHeight())
+			throw new IllegalArgumentException("Requested row is outside the image: " + y);
+		int width = getWidth();
+		if (row == null || row.length < width) row = buffers == null ? new byte[width] : buffers.row(width);
+		int offset = (y * step + top) * dataWidth + left;
+		if (step == 1 && !reverseHorizontal) System.arraycopy(yuvData, offset, row, 0, width);
+		else for (int x = 0, dx = reverseHorizontal ? -step : step; x < width; x++, offset += dx)
+			row[x] = yuvData[offset];
+		return row;
+	}
+
+}
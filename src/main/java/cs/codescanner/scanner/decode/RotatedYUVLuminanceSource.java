@@ -0,0 +1,119 @@
+package cs.codescanner.scanner.decode;
+
+/**
+ * Like {@link PlanarYUVLuminanceSource} but serving the Y plane rotated
+ * clockwise by 90, 180 or 270 degrees, as the frame appears on a screen in a
+ * different orientation than the camera sensor. Nothing is copied up front,
+ * getRow and getMatrix walk the frame in rotated order: pixel (x, y) of the
+ * source is read at origin + x * dx + y * dy of the frame. Mirroring just
+ * moves the origin to the end of the row and negates dx, a downsampled view
+ * multiplies both steps and a cropped one moves the origin.
+ *
+ * The crop rectangle is given in rotated coordinates.
+ */
+public final class RotatedYUVLuminanceSource extends FrameLuminanceSource {
+
+    private final byte[] _yuvData;
+    private final int _origin;
+    private final int _dx;
+    private final int _dy;
+    private final boolean _reverseHorizontal;
+    private final LuminanceBufferPool _buffers;
+
+    /**
+     * @param rotation          Clockwise rotation of the frame in degrees, 0,
+     *                          90, 180 or 270.
+     * @param left              Crop in the rotated frame.
+     * @param reverseHorizontal Whether to mirror the rotated crop.
+     */
+    public RotatedYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int rotation,
+                                     int left, int top, int width, int height,
+                                     boolean reverseHorizontal, LuminanceBufferPool buffers) {
+        super(width, height);
+        boolean sideways = rotation == 90 || rotation == 270;
+        int rotatedWidth = sideways ? dataHeight : dataWidth;
+        int rotatedHeight = sideways ? dataWidth : dataHeight;
+        if (left < 0 || top < 0 || left + width > rotatedWidth || top + height > rotatedHeight)
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        _yuvData = yuvData;
+        _reverseHorizontal = reverseHorizontal;
+        _buffers = buffers;
+        int origin;
+        int dx;
+        switch (rotation) {
+            case 0:
+                dx = 1;
+                _dy = dataWidth;
+                origin = top * dataWidth + left;
+                break;
+            case 90:
+                dx = -dataWidth;
+                _dy = 1;
+                origin = (dataHeight - 1 - left) * dataWidth + top;
+                break;
+            case 180:
+                dx = -1;
+                _dy = -dataWidth;
+                origin = (dataHeight - 1 - top) * dataWidth + dataWidth - 1 - left;
+                break;
+            case 270:
+                dx = dataWidth;
+                _dy = -1;
+                origin = left * dataWidth + dataWidth - 1 - top;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported rotation: " + rotation);
+        }
+        // A mirrored row starts at its last pixel and walks back
+        _origin = reverseHorizontal ? origin + (width - 1) * dx : origin;
+        _dx = reverseHorizontal ? -dx : dx;
+    }
+
+    private RotatedYUVLuminanceSource(RotatedYUVLuminanceSource source, int origin, int dx, int dy,
+                                      int width, int height) {
+        super(width, height);
+        _yuvData = source._yuvData;
+        _origin = origin;
+        _dx = dx;
+        _dy = dy;
+        _reverseHorizontal = source._reverseHorizontal;
+        _buffers = source._buffers;
+    }
+
+    @Override public RotatedYUVLuminanceSource downsample(int factor) {
+        if (factor == 1) return this;
+        return new RotatedYUVLuminanceSource(this, _origin, _dx * factor, _dy * factor, getWidth() / factor,
+                getHeight() / factor);
+    }
+
+    @Override public RotatedYUVLuminanceSource crop(int left, int top, int width, int height) {
+        checkCrop(left, top, width, height);
+        return new RotatedYUVLuminanceSource(this, _origin + left * _dx + top * _dy, _dx, _dy, width, height);
+    }
+
+    @Override public boolean isMirrored() {
+        return _reverseHorizontal;
+    }
+
+    @Override public byte[] getMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+        int area = width * height;
+        byte[] matrix = _buffers == null ? new byte[area] : _buffers.matrix(area);
+        for (int y = 0, output = 0; y < height; y++)
+            for (int x = 0, input = _origin + y * _dy; x < width; x++, input += _dx)
+                matrix[output++] = _yuvData[input];
+        return matrix;
+    }
+
+    @Override public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight())
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        int width = getWidth();
+        if (row == null || row.length < width) row = _buffers == null ? new byte[width] : _buffers.row(width);
+        for (int x = 0, input = _origin + y * _dy; x < width; x++, input += _dx)
+            row[x] = _yuvData[input];
+        return row;
+    }
+
+}
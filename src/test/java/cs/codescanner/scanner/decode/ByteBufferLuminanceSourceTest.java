@@ -0,0 +1,68 @@
+package cs.codescanner.scanner.decode;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ByteBufferLuminanceSourceTest {
+
+    private static final int WIDTH = 80;
+    private static final int HEIGHT = 60;
+    private static final int[][] CROPS = {{0, 0, WIDTH, HEIGHT}, {0, 10, WIDTH, 30}, {7, 5, 50, 33}};
+
+    /**
+     * @return The packed frame laid out with the given strides, the bytes in
+     * between filled with noise.
+     */
+    private static ByteBuffer strided(byte[] frame, int rowStride, int pixelStride, boolean direct) {
+        byte[] data = Frames.random(rowStride, HEIGHT, 9);
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++)
+                data[y * rowStride + x * pixelStride] = frame[y * WIDTH + x];
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+        buffer.put(data);
+        buffer.position(5).limit(17);
+        return buffer;
+    }
+
+    @Test public void readsTheCropThroughTheStrides() {
+        byte[] frame = Frames.random(WIDTH, HEIGHT, 4);
+        int[][] strides = {{WIDTH, 1}, {WIDTH + 16, 1}, {WIDTH * 2, 2}, {WIDTH * 2 + 7, 2}};
+        for (int[] stride : strides)
+            for (boolean direct : new boolean[]{false, true}) {
+                ByteBuffer buffer = strided(frame, stride[0], stride[1], direct);
+                for (int[] crop : CROPS)
+                    for (boolean mirror : new boolean[]{false, true})
+                        for (int factor = 1; factor <= 3; factor++) {
+                            ByteBufferLuminanceSource source = new ByteBufferLuminanceSource(buffer, stride[0],
+                                    stride[1], WIDTH, HEIGHT, crop[0], crop[1], crop[2], crop[3], mirror,
+                                    LuminanceBufferPool.get()).downsample(factor);
+                            byte[] expected = Frames.expected(frame, WIDTH, HEIGHT, 0, crop[0], crop[1], crop[2],
+                                    crop[3], mirror, factor);
+                            assertArrayEquals(expected, Frames.matrix(source));
+                            assertArrayEquals(expected, Frames.rows(source));
+                        }
+                // Shared buffers are left as they were
+                assertEquals(5, buffer.position());
+                assertEquals(17, buffer.limit());
+            }
+    }
+
+    @Test public void readsLikeThePlanarSource() {
+        byte[] frame = Frames.random(WIDTH, HEIGHT, 5);
+        ByteBufferLuminanceSource source = new ByteBufferLuminanceSource(ByteBuffer.wrap(frame), WIDTH, WIDTH,
+                HEIGHT, 7, 5, 50, 33, null);
+        assertArrayEquals(Frames.matrix(new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 7, 5, 50, 33, false)),
+                Frames.matrix(source));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rowStrideShorterThanARowThrows() {
+        new ByteBufferLuminanceSource(ByteBuffer.allocate(WIDTH * HEIGHT * 2), WIDTH * 2 - 2, 2, WIDTH, HEIGHT, 0,
+                0, WIDTH, HEIGHT, false, null);
+    }
+
+}
@@ -0,0 +1,140 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameDecoderTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private static FrameDecoder decoder(Map<DecodeHintType, Object> hints, boolean multiple) {
+        return new FrameDecoder(hints, multiple, null, null, new BinarizerStrategy(), new FormatStatistics(),
+                new DecodePyramid());
+    }
+
+    /**
+     * Draws a code with its top left corner at left and top.
+     */
+    private static void draw(byte[] frame, BarcodeFormat format, String contents, int left, int top, int width,
+                             int height) {
+        DecoderWarmUp.draw(frame, WIDTH, DecoderWarmUp.encode(contents, format, width, height), left, top, 1);
+    }
+
+    @Test public void multipleModeFindsEveryCode() {
+        byte[] frame = DecoderWarmUp.blank(WIDTH, HEIGHT);
+        draw(frame, BarcodeFormat.QR_CODE, "qr code", 40, 140, 200, 200);
+        draw(frame, BarcodeFormat.EAN_13, "5901234123457", 320, 180, 280, 120);
+        DecodeOutcome outcome = decoder(Frames.hints(BarcodeFormat.QR_CODE, BarcodeFormat.EAN_13), true)
+                .decode(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+        assertTrue(outcome.isFound());
+        Set<String> texts = new HashSet<String>();
+        for (Result result : outcome.getResults()) texts.add(result.getText());
+        assertEquals(new HashSet<String>(Arrays.asList("qr code", "5901234123457")), texts);
+    }
+
+    private static float[] sortedXs(ResultPoint[] points) {
+        float[] xs = new float[points.length];
+        for (int i = 0; i < points.length; i++) xs[i] = points[i].getX();
+        Arrays.sort(xs);
+        return xs;
+    }
+
+    @Test public void pointsOfAMirroredSourceAreMirroredBack() {
+        byte[] frame = DecoderWarmUp.blank(WIDTH, HEIGHT);
+        draw(frame, BarcodeFormat.EAN_13, "5901234123457", 150, 180, 300, 120);
+        FrameDecoder decoder = decoder(Frames.hints(BarcodeFormat.EAN_13), false);
+        ResultPoint[] plain = decoder.decode(new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 100, 100, 420,
+                300, false), 100, 100).getResults()[0].getResultPoints();
+        ResultPoint[] mirrored = decoder.decode(new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 100, 100, 420,
+                300, true), 100, 100).getResults()[0].getResultPoints();
+        assertArrayEquals(sortedXs(plain), sortedXs(mirrored), 2f);
+        // Back in frame coordinates, around the drawn code
+        assertTrue(sortedXs(plain)[0] >= 150 && sortedXs(plain)[1] <= 450);
+    }
+
+    @Test public void largeCodeIsFoundOnTheCoarseLevel() {
+        DecodePyramid pyramid = new DecodePyramid();
+        FrameDecoder decoder = new FrameDecoder(Frames.hints(BarcodeFormat.QR_CODE), false, null, null,
+                new BinarizerStrategy(), new FormatStatistics(), pyramid);
+        byte[] frame = Frames.qrFrame(WIDTH, HEIGHT, "large", 6);
+        DecodeOutcome outcome = decoder.decode(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+        assertEquals("large", outcome.getResults()[0].getText());
+        assertEquals(DecodePyramid.COARSE, outcome.getLevel());
+        assertEquals(0, pyramid.getAttempts(DecodePyramid.FULL));
+    }
+
+    @Test public void smallCodeFallsThroughToFullResolution() {
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 12; i++) contents.append("0123456789");
+        DecodePyramid pyramid = new DecodePyramid();
+        FrameDecoder decoder = new FrameDecoder(Frames.hints(BarcodeFormat.QR_CODE), false, null, null,
+                new BinarizerStrategy(), new FormatStatistics(), pyramid);
+        // One pixel modules vanish at half resolution
+        byte[] frame = Frames.qrFrame(WIDTH, HEIGHT, contents.toString(), 1);
+        DecodeOutcome outcome = decoder.decode(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+        assertEquals(contents.toString(), outcome.getResults()[0].getText());
+        assertEquals(DecodePyramid.FULL, outcome.getLevel());
+        assertEquals(1, pyramid.getAttempts(DecodePyramid.COARSE));
+        assertEquals(0, pyramid.getHits(DecodePyramid.COARSE));
+    }
+
+    @Test public void unevenlyLitCodeFallsBackToTheHybridBinarizer() {
+        byte[] code = Frames.qrFrame(WIDTH, HEIGHT, "shaded", 6);
+        byte[] frame = new byte[WIDTH * HEIGHT];
+        // Light falls off to the left, dark modules on the right end up
+        // brighter than the background on the left
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++) {
+                int light = 40 + 215 * x / WIDTH;
+                boolean dark = (code[y * WIDTH + x] & 0xff) < 128;
+                frame[y * WIDTH + x] = (byte) (dark ? light * 2 / 5 : light);
+            }
+        BinarizerStrategy strategy = new BinarizerStrategy();
+        DecodePyramid pyramid = new DecodePyramid();
+        pyramid.setCoarseFactor(1);
+        FrameDecoder decoder = new FrameDecoder(Frames.hints(BarcodeFormat.QR_CODE), false, null, null, strategy,
+                new FormatStatistics(), pyramid);
+        assertEquals("shaded", decoder.decode(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT).getResults()[0]
+                .getText());
+        assertEquals(1, strategy.getAttempts(BinarizerStrategy.Kind.GLOBAL_HISTOGRAM));
+        assertEquals(0, strategy.getHits(BinarizerStrategy.Kind.GLOBAL_HISTOGRAM));
+        assertEquals(1, strategy.getHits(BinarizerStrategy.Kind.HYBRID));
+    }
+
+    @Test public void binarizersArePlannedOncePerFrame() {
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 12; i++) contents.append("0123456789");
+        BinarizerStrategy strategy = new BinarizerStrategy();
+        FrameDecoder decoder = new FrameDecoder(Frames.hints(BarcodeFormat.QR_CODE), false, null, null, strategy,
+                new FormatStatistics(), new DecodePyramid());
+        byte[] frame = Frames.qrFrame(WIDTH, HEIGHT, contents.toString(), 1);
+        decoder.decode(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+        // Both levels tried the cheap binarizer first, as planned for the frame
+        assertEquals(2, strategy.getAttempts(BinarizerStrategy.Kind.GLOBAL_HISTOGRAM));
+    }
+
+    @Test public void setHintsSwapsTheFormats() {
+        byte[] frame = Frames.qrFrame(WIDTH, HEIGHT, "swapped", 6);
+        FrameDecoder decoder = decoder(Frames.hints(BarcodeFormat.EAN_13), false);
+        assertFalse(decoder.decode(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT).isFound());
+        decoder.setHints(Frames.hints(BarcodeFormat.QR_CODE));
+        assertEquals("swapped", decoder.decode(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT).getResults()[0]
+                .getText());
+    }
+
+}
@@ -0,0 +1,80 @@
+package cs.codescanner.scanner.decode;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cropped views of every frame source read the same pixels as the matching
+ * part of the source they were cropped from, whatever its rotation, mirroring
+ * and downsampling.
+ */
+public class FrameLuminanceSourceTest {
+
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 64;
+
+    /**
+     * Crops the source, then the crop again, comparing matrix and rows with
+     * the source's own matrix.
+     */
+    private static void assertCrops(FrameLuminanceSource source) {
+        assertTrue(source.isCropSupported());
+        byte[] matrix = Frames.matrix(source);
+        int width = source.getWidth();
+        FrameLuminanceSource crop = source.crop(3, 5, width - 7, source.getHeight() - 8);
+        byte[] expected = Frames.subMatrix(matrix, width, 3, 5, width - 7, source.getHeight() - 8);
+        assertArrayEquals(expected, Arrays.copyOf(crop.getMatrix(), expected.length));
+        for (int y = 0; y < crop.getHeight(); y++)
+            assertArrayEquals(Frames.subMatrix(matrix, width, 3, 5 + y, crop.getWidth(), 1),
+                    crop.getRow(y, null));
+
+        FrameLuminanceSource inner = crop.crop(2, 1, 4, 3);
+        assertArrayEquals(Frames.subMatrix(matrix, width, 5, 6, 4, 3), Arrays.copyOf(inner.getMatrix(), 12));
+    }
+
+    @Test public void planarCrops() {
+        byte[] frame = Frames.random(WIDTH, HEIGHT, 7);
+        for (boolean mirror : new boolean[]{false, true})
+            for (int factor = 1; factor <= 2; factor++) {
+                assertCrops(new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 10, 6, 60, 40, mirror)
+                        .downsample(factor));
+                assertCrops(new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, mirror)
+                        .downsample(factor));
+            }
+    }
+
+    @Test public void rotatedCrops() {
+        byte[] frame = Frames.random(WIDTH, HEIGHT, 7);
+        for (int rotation = 0; rotation < 360; rotation += 90)
+            for (boolean mirror : new boolean[]{false, true})
+                for (int factor = 1; factor <= 2; factor++)
+                    assertCrops(new RotatedYUVLuminanceSource(frame, WIDTH, HEIGHT, rotation, 4, 2, 40, 30,
+                            mirror, null).downsample(factor));
+    }
+
+    @Test public void byteBufferCrops() {
+        int rowStride = WIDTH * 2 + 8;
+        byte[] data = new byte[rowStride * HEIGHT];
+        new Random(11).nextBytes(data);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        for (int pixelStride = 1; pixelStride <= 2; pixelStride++)
+            for (boolean mirror : new boolean[]{false, true})
+                for (int factor = 1; factor <= 2; factor++)
+                    assertCrops(new ByteBufferLuminanceSource(buffer, rowStride, pixelStride, WIDTH, HEIGHT, 10,
+                            6, 60, 40, mirror, null).downsample(factor));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropOutsideTheSourceThrows() {
+        new PlanarYUVLuminanceSource(Frames.random(WIDTH, HEIGHT, 7), WIDTH, HEIGHT, 0, 0, 20, 20, false)
+                .crop(10, 10, 11, 5);
+    }
+
+}
@@ -0,0 +1,91 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.common.BitMatrix;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameReplayerTest {
+
+    // The sensor frame, landscape, shown in portrait rotated by 90 degrees
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final String EAN = "5901234123457";
+    // Framing rect in the portrait view, wide enough for the code only there
+    private static final int LEFT = 20;
+    private static final int TOP = 220;
+    private static final int CROP_WIDTH = 440;
+    private static final int CROP_HEIGHT = 200;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @return The sensor frame which, turned 90 degrees clockwise, shows an
+     *         EAN-13 filling the framing rect, mirrored within it if asked.
+     */
+    private static byte[] portraitFrame(boolean mirrored) {
+        BitMatrix code = DecoderWarmUp.encode(EAN, BarcodeFormat.EAN_13, CROP_WIDTH - 40, 120);
+        // Portrait view, HEIGHT wide and WIDTH high
+        byte[] view = DecoderWarmUp.blank(HEIGHT, WIDTH);
+        DecoderWarmUp.draw(view, HEIGHT, code, LEFT + (CROP_WIDTH - code.getWidth()) / 2,
+                TOP + (CROP_HEIGHT - code.getHeight()) / 2, 1);
+        if (mirrored)
+            for (int y = TOP; y < TOP + CROP_HEIGHT; y++)
+                for (int x = 0; x < CROP_WIDTH / 2; x++) {
+                    int left = y * HEIGHT + LEFT + x;
+                    int right = y * HEIGHT + LEFT + CROP_WIDTH - 1 - x;
+                    byte swap = view[left];
+                    view[left] = view[right];
+                    view[right] = swap;
+                }
+        // Turned back by 270 degrees into the sensor's landscape
+        return Frames.rotate(view, HEIGHT, WIDTH, 270);
+    }
+
+    private List<String> recordAndReplay(byte[] frame, int rotation, boolean mirrored) throws Exception {
+        File file = folder.newFile("capture");
+        FrameRecorder recorder = new FrameRecorder(file, 1 << 20);
+        recorder.record(frame, WIDTH, HEIGHT, LEFT, TOP, LEFT + CROP_WIDTH, TOP + CROP_HEIGHT, rotation, mirrored);
+        recorder.close();
+        assertEquals(1, recorder.getRecordedFrames());
+
+        final List<String> texts = new ArrayList<String>();
+        new FrameReplayer(file).replay(new FrameDecoder(Frames.hints(BarcodeFormat.EAN_13)), false, new FrameReplayer.Listener() {
+            @Override public void onFrame(int index, long recordedNanos, long decodeNanos, DecodeOutcome outcome) {
+                texts.add(outcome.isFound() ? outcome.getResults()[0].getText() : null);
+            }
+        });
+        return texts;
+    }
+
+    @Test public void replaysAPortraitFrameRotated() throws Exception {
+        assertEquals(Collections.singletonList(EAN), recordAndReplay(portraitFrame(false), 90, false));
+    }
+
+    @Test public void replaysAMirroredPortraitFrameMirrored() throws Exception {
+        assertEquals(Collections.singletonList(EAN), recordAndReplay(portraitFrame(true), 90, true));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAFileOfAnotherVersion() throws Exception {
+        File file = folder.newFile("old");
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+        output.writeInt(FrameRecorder.MAGIC);
+        output.writeInt(FrameRecorder.VERSION - 1);
+        output.close();
+        new FrameReplayer(file);
+    }
+
+}
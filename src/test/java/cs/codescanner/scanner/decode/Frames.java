@@ -0,0 +1,127 @@
+package cs.codescanner.scanner.decode;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Test frames and a straightforward model of what a frame source should
+ * read: rotate the whole frame, crop, mirror, then take every factor-th pixel.
+ * Frames with codes are drawn like {@link DecoderWarmUp} draws its own.
+ */
+final class Frames {
+
+    static byte[] random(int width, int height, long seed) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+
+    /**
+     * @return A light frame with a QR code centered in it, each module scale
+     * pixels square.
+     */
+    static byte[] qrFrame(int width, int height, String contents, int scale) {
+        BitMatrix code = DecoderWarmUp.encode(contents, BarcodeFormat.QR_CODE, 0, 0);
+        byte[] frame = DecoderWarmUp.blank(width, height);
+        DecoderWarmUp.draw(frame, width, code, (width - code.getWidth() * scale) / 2,
+                (height - code.getHeight() * scale) / 2, scale);
+        return frame;
+    }
+
+    static Map<DecodeHintType, Object> hints(BarcodeFormat first, BarcodeFormat... rest) {
+        Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(first, rest));
+        return hints;
+    }
+
+    /**
+     * @param rotation Clockwise, a multiple of 90 degrees.
+     * @return The Y plane of the frame turned, width and height swapped when
+     * turned sideways.
+     */
+    static byte[] rotate(byte[] frame, int width, int height, int rotation) {
+        byte[] plane = Arrays.copyOf(frame, width * height);
+        for (int turns = rotation / 90; turns > 0; turns--) {
+            plane = rotate90(plane, width, height);
+            int swap = width;
+            width = height;
+            height = swap;
+        }
+        return plane;
+    }
+
+    /**
+     * @return The frame turned clockwise by 90 degrees, width and height
+     * swapped.
+     */
+    private static byte[] rotate90(byte[] frame, int width, int height) {
+        byte[] rotated = new byte[width * height];
+        // Column x of the turned frame is row height - 1 - x of the original
+        for (int y = 0; y < width; y++)
+            for (int x = 0; x < height; x++)
+                rotated[y * height + x] = frame[(height - 1 - x) * width + y];
+        return rotated;
+    }
+
+    /**
+     * @param rotation Clockwise rotation of the frame, crop in the rotated
+     *                 frame.
+     */
+    static byte[] expected(byte[] frame, int width, int height, int rotation, int left, int top,
+                           int cropWidth, int cropHeight, boolean mirror, int factor) {
+        byte[] plane = rotate(frame, width, height, rotation);
+        int rotatedWidth = rotation == 90 || rotation == 270 ? height : width;
+        int outWidth = cropWidth / factor;
+        int outHeight = cropHeight / factor;
+        byte[] expected = new byte[outWidth * outHeight];
+        for (int y = 0; y < outHeight; y++)
+            for (int x = 0; x < outWidth; x++) {
+                int cropX = mirror ? cropWidth - 1 - x * factor : x * factor;
+                expected[y * outWidth + x] = plane[(top + y * factor) * rotatedWidth + left + cropX];
+            }
+        return expected;
+    }
+
+    /**
+     * @return The given part of a matrix width pixels wide.
+     */
+    static byte[] subMatrix(byte[] matrix, int width, int left, int top, int cropWidth, int cropHeight) {
+        byte[] sub = new byte[cropWidth * cropHeight];
+        for (int y = 0; y < cropHeight; y++)
+            System.arraycopy(matrix, (top + y) * width + left, sub, y * cropWidth, cropWidth);
+        return sub;
+    }
+
+    /**
+     * @return The source's matrix without any slack a pooled buffer has.
+     */
+    static byte[] matrix(LuminanceSource source) {
+        return Arrays.copyOf(source.getMatrix(), source.getWidth() * source.getHeight());
+    }
+
+    /**
+     * @return The source's rows one after another.
+     */
+    static byte[] rows(LuminanceSource source) {
+        int width = source.getWidth();
+        byte[] rows = new byte[width * source.getHeight()];
+        byte[] row = null;
+        for (int y = 0; y < source.getHeight(); y++) {
+            row = source.getRow(y, row);
+            System.arraycopy(row, 0, rows, y * width, width);
+        }
+        return rows;
+    }
+
+    private Frames() {
+    }
+
+}
@@ -0,0 +1,49 @@
+package cs.codescanner.scanner.decode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PlanarYUVLuminanceSourceTest {
+
+    private static final int WIDTH = 80;
+    private static final int HEIGHT = 60;
+    // Whole frame, full-width band, inner crop
+    private static final int[][] CROPS = {{0, 0, WIDTH, HEIGHT}, {0, 10, WIDTH, 30}, {7, 5, 50, 33}};
+
+    @Test public void readsTheCropMirroredAndDownsampled() {
+        byte[] frame = Frames.random(WIDTH, HEIGHT, 1);
+        for (int[] crop : CROPS)
+            for (boolean mirror : new boolean[]{false, true})
+                for (int factor = 1; factor <= 3; factor++)
+                    for (LuminanceBufferPool pool : new LuminanceBufferPool[]{null, LuminanceBufferPool.get()}) {
+                        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT,
+                                crop[0], crop[1], crop[2], crop[3], mirror, pool).downsample(factor);
+                        byte[] expected = Frames.expected(frame, WIDTH, HEIGHT, 0, crop[0], crop[1], crop[2],
+                                crop[3], mirror, factor);
+                        assertEquals(factor, source.getStep());
+                        assertArrayEquals(expected, Frames.matrix(source));
+                        assertArrayEquals(expected, Frames.rows(source));
+                    }
+    }
+
+    @Test public void wholeFrameMatrixIsTheFrame() {
+        byte[] frame = Frames.random(WIDTH, HEIGHT, 2);
+        assertSame(frame, new PlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, false)
+                .getMatrix());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropOutsideTheFrameThrows() {
+        new PlanarYUVLuminanceSource(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 40, 0, 41, HEIGHT, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rowOutsideTheSourceThrows() {
+        new PlanarYUVLuminanceSource(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, false)
+                .downsample(2).getRow(HEIGHT / 2, null);
+    }
+
+}
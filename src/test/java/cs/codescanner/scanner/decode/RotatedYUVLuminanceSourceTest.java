@@ -0,0 +1,56 @@
+package cs.codescanner.scanner.decode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class RotatedYUVLuminanceSourceTest {
+
+    private static final int WIDTH = 80;
+    private static final int HEIGHT = 60;
+
+    @Test public void turnsClockwise() {
+        byte[] frame = {1, 2, 3, 4, 5, 6};
+        assertArrayEquals(new byte[]{4, 1, 5, 2, 6, 3}, Frames.matrix(new RotatedYUVLuminanceSource(frame, 3, 2,
+                90, 0, 0, 2, 3, false, null)));
+        assertArrayEquals(new byte[]{6, 5, 4, 3, 2, 1}, Frames.matrix(new RotatedYUVLuminanceSource(frame, 3, 2,
+                180, 0, 0, 3, 2, false, null)));
+        assertArrayEquals(new byte[]{3, 6, 2, 5, 1, 4}, Frames.matrix(new RotatedYUVLuminanceSource(frame, 3, 2,
+                270, 0, 0, 2, 3, false, null)));
+        assertArrayEquals(new byte[]{1, 4, 2, 5, 3, 6}, Frames.matrix(new RotatedYUVLuminanceSource(frame, 3, 2,
+                90, 0, 0, 2, 3, true, null)));
+    }
+
+    @Test public void readsTheRotatedCropMirroredAndDownsampled() {
+        byte[] frame = Frames.random(WIDTH, HEIGHT, 3);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            boolean sideways = rotation % 180 != 0;
+            int width = sideways ? HEIGHT : WIDTH;
+            int height = sideways ? WIDTH : HEIGHT;
+            int[][] crops = {{0, 0, width, height}, {3, 9, width - 10, 20}, {width - 25, height - 14, 25, 14}};
+            for (int[] crop : crops)
+                for (boolean mirror : new boolean[]{false, true})
+                    for (int factor = 1; factor <= 3; factor++) {
+                        RotatedYUVLuminanceSource source = new RotatedYUVLuminanceSource(frame, WIDTH, HEIGHT,
+                                rotation, crop[0], crop[1], crop[2], crop[3], mirror, LuminanceBufferPool.get())
+                                .downsample(factor);
+                        byte[] expected = Frames.expected(frame, WIDTH, HEIGHT, rotation, crop[0], crop[1],
+                                crop[2], crop[3], mirror, factor);
+                        assertArrayEquals(expected, Frames.matrix(source));
+                        assertArrayEquals(expected, Frames.rows(source));
+                    }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropOutsideTheRotatedFrameThrows() {
+        // 60 wide once turned sideways
+        new RotatedYUVLuminanceSource(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 90, 0, 0, 61, 10, false, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedRotationThrows() {
+        new RotatedYUVLuminanceSource(new byte[WIDTH * HEIGHT], WIDTH, HEIGHT, 45, 0, 0, 10, 10, false, null);
+    }
+
+}